@@ -0,0 +1,161 @@
+package io.branch.roots.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * <p>
+ * Annotation processor generating the route registry for the activities annotated with {@code io.branch.roots.RootsRoute}.
+ * The generated class registers each route with the activity class literal, so deep link routing needs neither a manifest
+ * scan nor reflection at runtime. The registry is generated as {@code io.branch.roots.generated.RootsRouteRegistry} by default.
+ * The package can be changed with the "rootsRegistryPackage" processor option, eg when more than one module declares routes.
+ * </p>
+ */
+public class RootsRouteProcessor extends AbstractProcessor {
+
+    private static final String ROOTS_ROUTE_ANNOTATION = "io.branch.roots.RootsRoute";
+    private static final String REGISTRY_PACKAGE_OPTION = "rootsRegistryPackage";
+    private static final String DEFAULT_REGISTRY_PACKAGE = "io.branch.roots.generated";
+    private static final String REGISTRY_CLASS_NAME = "RootsRouteRegistry";
+    private static final String APP_LINK_PATTERNS_KEY = "value";
+    private static final String WEB_PATTERNS_KEY = "webUrl";
+
+    private boolean isRegistryGenerated_;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(ROOTS_ROUTE_ANNOTATION);
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Collections.singleton(REGISTRY_PACKAGE_OPTION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (isRegistryGenerated_ || annotations.isEmpty()) {
+            return false;
+        }
+        List<String> appLinkRoutes = new ArrayList<>();
+        List<String> webRoutes = new ArrayList<>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS || !element.getModifiers().contains(Modifier.PUBLIC)) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@RootsRoute can only be used on public activity classes", element);
+                    continue;
+                }
+                String activityClassName = ((TypeElement) element).getQualifiedName().toString();
+                for (AnnotationMirror annotationMirror : element.getAnnotationMirrors()) {
+                    if (!annotationMirror.getAnnotationType().toString().equals(ROOTS_ROUTE_ANNOTATION)) {
+                        continue;
+                    }
+                    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotationMirror.getElementValues().entrySet()) {
+                        String key = entry.getKey().getSimpleName().toString();
+                        if (APP_LINK_PATTERNS_KEY.equals(key)) {
+                            addRoutes(appLinkRoutes, entry.getValue(), activityClassName);
+                        } else if (WEB_PATTERNS_KEY.equals(key)) {
+                            addRoutes(webRoutes, entry.getValue(), activityClassName);
+                        }
+                    }
+                }
+            }
+        }
+        generateRegistry(appLinkRoutes, webRoutes);
+        isRegistryGenerated_ = true;
+        return true;
+    }
+
+    /**
+     * Adds the pattern and activity class name pairs for the patterns in the given annotation value to the routes list
+     */
+    private static void addRoutes(List<String> routes, AnnotationValue patternsValue, String activityClassName) {
+        Object value = patternsValue.getValue();
+        if (value instanceof List) {
+            for (Object pattern : (List<?>) value) {
+                routes.add(((AnnotationValue) pattern).getValue().toString());
+                routes.add(activityClassName);
+            }
+        } else if (value != null) {
+            routes.add(value.toString());
+            routes.add(activityClassName);
+        }
+    }
+
+    private void generateRegistry(List<String> appLinkRoutes, List<String> webRoutes) {
+        String packageName = processingEnv.getOptions().get(REGISTRY_PACKAGE_OPTION);
+        if (packageName == null || packageName.length() == 0) {
+            packageName = DEFAULT_REGISTRY_PACKAGE;
+        }
+        StringBuilder source = new StringBuilder();
+        source.append("package ").append(packageName).append(";\n\n");
+        source.append("import io.branch.roots.Roots;\n\n");
+        source.append("/**\n * Generated by RootsRouteProcessor from the @RootsRoute annotations. Do not modify.\n */\n");
+        source.append("public final class ").append(REGISTRY_CLASS_NAME).append(" implements Roots.IRouteRegistry {\n\n");
+        source.append("    @Override\n");
+        source.append("    public void registerRoutes(Roots.IRouteRegistrar registrar) {\n");
+        appendRoutes(source, "addAppLinkRoute", appLinkRoutes);
+        appendRoutes(source, "addWebRoute", webRoutes);
+        source.append("    }\n}\n");
+
+        Writer writer = null;
+        try {
+            JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(packageName + "." + REGISTRY_CLASS_NAME);
+            writer = sourceFile.openWriter();
+            writer.write(source.toString());
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to generate Roots route registry: " + ex.getMessage());
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    private static void appendRoutes(StringBuilder source, String registrarMethod, List<String> routes) {
+        for (int i = 0; i < routes.size(); i += 2) {
+            source.append("        registrar.").append(registrarMethod).append("(\"");
+            appendEscaped(source, routes.get(i));
+            source.append("\", ").append(routes.get(i + 1)).append(".class);\n");
+        }
+    }
+
+    private static void appendEscaped(StringBuilder source, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                source.append('\\').append(c);
+            } else if (c < 0x20) {
+                source.append(String.format("\\u%04x", (int) c));
+            } else {
+                source.append(c);
+            }
+        }
+    }
+}
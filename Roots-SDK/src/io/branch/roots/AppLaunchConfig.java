@@ -1,19 +1,26 @@
 package io.branch.roots;
 
+import android.content.Intent;
 import android.net.Uri;
 import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+
 /**
  * Created by sojanpr on 4/6/16.
  * <p>
  * Class for defining the target application configuration
  * </p>
  */
-class AppLaunchConfig {
+public class AppLaunchConfig {
 
     private static final String PROPERTY_KEY = "property";
     private static final String CONTENT_KEY = "content";
@@ -23,6 +30,15 @@ class AppLaunchConfig {
     private static final String PROPERTY_ANDROID_PACKAGE_NAME = "al:android:package";
     private static final String PROPERTY_WEB_URL = "al:web:url";
     private static final String PROPERTY_ALWAYS_WEB_FALLBACK = "al:web:should_fallback";
+    /* App link properties used by the config. Property names are interned to these instances for dispatching by reference */
+    private static final HashMap<String, String> KNOWN_PROPERTIES = new HashMap<>();
+
+    static {
+        for (String property : new String[]{PROPERTY_ANDROID_URL, PROPERTY_ANDROID_APP_NAME, PROPERTY_ANDROID_PACKAGE_NAME,
+                PROPERTY_WEB_URL, PROPERTY_ALWAYS_WEB_FALLBACK}) {
+            KNOWN_PROPERTIES.put(property, property);
+        }
+    }
 
     public static final int PORT_UNDEFINED = -1;
 
@@ -37,6 +53,10 @@ class AppLaunchConfig {
     private String targetAppPackageName_;
     private String targetAppFallbackUrl_;
     private boolean alwaysOpenPlayStore_ = true;
+    /* True if the fallback url is read from the metadata. Otherwise the fallback url is the actual url */
+    private boolean hasWebFallbackUrl_;
+    /* Intent for launching the target app with the uri scheme. Built once when the config is created */
+    private Intent launchIntentTemplate_;
 
 
     /**
@@ -48,7 +68,85 @@ class AppLaunchConfig {
      * @param url                  {@link String} with value for the target url
      */
     public AppLaunchConfig(JSONArray appLinkMetaDataArray, String url) {
-        createFromAppLinkData(appLinkMetaDataArray, url);
+        this(url);
+        createFromAppLinkData(appLinkMetaDataArray);
+        launchIntentTemplate_ = createLaunchIntentTemplate();
+    }
+
+    private AppLaunchConfig(String url) {
+        actualUri_ = url.toLowerCase();
+        // Default value for the fallback is the url itself
+        targetAppFallbackUrl_ = url;
+    }
+
+    /**
+     * <p>
+     * Create an instance of {@link AppLaunchConfig} by streaming the app link metadata JSON, ie an array of objects with
+     * "property" and "content" keys. Each property is applied as it is read, without building the JSON objects.
+     * </p>
+     *
+     * @param reader {@link JsonReader} positioned at the app link metadata array
+     * @param url    {@link String} with value for the target url
+     * @return {@link AppLaunchConfig} for the metadata
+     * @throws IOException on error reading the JSON
+     */
+    public static AppLaunchConfig createFromJson(JsonReader reader, String url) throws IOException {
+        AppLaunchConfig appLaunchConfig = new AppLaunchConfig(url);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String property = null;
+            String content = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.skipValue();
+                } else if (name.equals(PROPERTY_KEY)) {
+                    property = reader.nextString();
+                } else if (name.equals(CONTENT_KEY)) {
+                    content = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (property != null && content != null) {
+                appLaunchConfig.applyAppLinkProperty(property, content);
+            }
+        }
+        reader.endArray();
+        appLaunchConfig.launchIntentTemplate_ = appLaunchConfig.createLaunchIntentTemplate();
+        return appLaunchConfig;
+    }
+
+    /**
+     * <p>
+     * Create a copy of the given {@link AppLaunchConfig} for another url with the same app link metadata.
+     * The metadata is not parsed again and the launch intent is reused unless it depends on the url.
+     * </p>
+     *
+     * @param appLaunchConfig {@link AppLaunchConfig} to copy
+     * @param url             {@link String} with value for the target url
+     */
+    AppLaunchConfig(AppLaunchConfig appLaunchConfig, String url) {
+        actualUri_ = url.toLowerCase();
+        targetUri_ = appLaunchConfig.targetUri_;
+        targetAppName_ = appLaunchConfig.targetAppName_;
+        targetAppLaunchScheme_ = appLaunchConfig.targetAppLaunchScheme_;
+        targetAppLaunchHost_ = appLaunchConfig.targetAppLaunchHost_;
+        targetAppLaunchPath_ = appLaunchConfig.targetAppLaunchPath_;
+        targetAppLaunchPort_ = appLaunchConfig.targetAppLaunchPort_;
+        targetAppLaunchParams_ = appLaunchConfig.targetAppLaunchParams_;
+        targetAppPackageName_ = appLaunchConfig.targetAppPackageName_;
+        alwaysOpenPlayStore_ = appLaunchConfig.alwaysOpenPlayStore_;
+        hasWebFallbackUrl_ = appLaunchConfig.hasWebFallbackUrl_;
+        if (hasWebFallbackUrl_) {
+            targetAppFallbackUrl_ = appLaunchConfig.targetAppFallbackUrl_;
+            launchIntentTemplate_ = appLaunchConfig.launchIntentTemplate_;
+        } else {
+            targetAppFallbackUrl_ = url;
+            launchIntentTemplate_ = createLaunchIntentTemplate();
+        }
     }
 
     /**
@@ -160,46 +258,52 @@ class AppLaunchConfig {
         this.alwaysOpenPlayStore_ = alwaysOpenPlayStore;
     }
 
+    /**
+     * Creates the intent for opening the target app with the uri scheme. The fallback url is added as an encoded query parameter.
+     *
+     * @return {@link Intent} for launching the target app or null if the launch intent is not available
+     */
+    public Intent createLaunchIntent() {
+        return launchIntentTemplate_ == null ? null : new Intent(launchIntentTemplate_);
+    }
+
+    private Intent createLaunchIntentTemplate() {
+        if (!isLaunchIntentAvailable()) {
+            return null;
+        }
+        StringBuilder uriString = new StringBuilder(targetAppLaunchScheme_).append("://");
+        if (!TextUtils.isEmpty(targetAppLaunchHost_)) {
+            uriString.append(targetAppLaunchHost_);
+        }
+        if (targetAppLaunchPort_ != PORT_UNDEFINED) {
+            uriString.append(':').append(targetAppLaunchPort_);
+        }
+        if (!TextUtils.isEmpty(targetAppLaunchPath_)) {
+            uriString.append(targetAppLaunchPath_);
+        }
+        uriString.append('?').append(Defines.APP_CONNECTOR_LAUNCH_KEY).append("=True");
+        uriString.append('&').append(Defines.APP_CONNECTOR_FALLBACK_URL).append('=').append(Uri.encode(targetAppFallbackUrl_));
+        if (!TextUtils.isEmpty(targetAppLaunchParams_)) {
+            uriString.append('&').append(targetAppLaunchParams_);
+        }
+        Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse(uriString.toString()));
+        intent.setPackage(targetAppPackageName_);
+        return intent;
+    }
+
     /**
      * Create an {@link AppLaunchConfig} instance  form App Link meta data
      *
      * @param metadataArray App Link metadata array
      * @param url           {@link String} with value for the target url
      */
-    private void createFromAppLinkData(JSONArray metadataArray, String url) {
-        actualUri_ = url;
-        actualUri_ = actualUri_.toLowerCase();
-        // Default value for the fallback is the url itself
-        targetAppFallbackUrl_ = url;
+    private void createFromAppLinkData(JSONArray metadataArray) {
         if (metadataArray != null) {
             try {
                 for (int i = 0; i < metadataArray.length(); i++) {
                     JSONObject metaDataJson = metadataArray.getJSONObject(i);
                     if (metaDataJson.has(PROPERTY_KEY) && metaDataJson.has(CONTENT_KEY)) {
-                        String property = metaDataJson.getString(PROPERTY_KEY);
-                        String value = metaDataJson.getString(CONTENT_KEY);
-
-                        if (property.equalsIgnoreCase(PROPERTY_ANDROID_APP_NAME)) {
-                            targetAppName_ = value;
-                        } else if (property.equalsIgnoreCase(PROPERTY_ANDROID_PACKAGE_NAME)) {
-                            targetAppPackageName_ = value;
-                        } else if (property.equalsIgnoreCase(PROPERTY_WEB_URL)) {
-                            targetAppFallbackUrl_ = value;
-                        } else if (property.equalsIgnoreCase(PROPERTY_ALWAYS_WEB_FALLBACK)) {
-                            try {
-                                alwaysOpenPlayStore_ = Boolean.parseBoolean(value);
-                            } catch (Exception ignore) {
-
-                            }
-                        } else if (property.equalsIgnoreCase(PROPERTY_ANDROID_URL)) {
-                            Uri uri = Uri.parse(value);
-                            targetUri_ = value;
-                            targetAppLaunchScheme_ = uri.getScheme();
-                            targetAppLaunchHost_ = uri.getHost();
-                            targetAppLaunchPath_ = uri.getPath();
-                            targetAppLaunchParams_ = uri.getQuery();
-                            targetAppLaunchPort_ = uri.getPort();
-                        }
+                        applyAppLinkProperty(metaDataJson.getString(PROPERTY_KEY), metaDataJson.getString(CONTENT_KEY));
                     }
                 }
             } catch (JSONException ignore) {
@@ -208,6 +312,60 @@ class AppLaunchConfig {
         }
     }
 
+    /**
+     * Applies a single app link property to the config.
+     *
+     * @param property App link property name
+     * @param value    Content of the property
+     */
+    private void applyAppLinkProperty(String property, String value) {
+        String key = internProperty(property);
+        if (key == PROPERTY_ANDROID_APP_NAME) {
+            targetAppName_ = value;
+        } else if (key == PROPERTY_ANDROID_PACKAGE_NAME) {
+            targetAppPackageName_ = value;
+        } else if (key == PROPERTY_WEB_URL) {
+            targetAppFallbackUrl_ = value;
+            hasWebFallbackUrl_ = true;
+        } else if (key == PROPERTY_ALWAYS_WEB_FALLBACK) {
+            alwaysOpenPlayStore_ = Boolean.parseBoolean(value);
+        } else if (key == PROPERTY_ANDROID_URL) {
+            Uri uri = Uri.parse(value);
+            targetUri_ = value;
+            targetAppLaunchScheme_ = uri.getScheme();
+            targetAppLaunchHost_ = uri.getHost();
+            targetAppLaunchPath_ = uri.getPath();
+            targetAppLaunchParams_ = uri.getQuery();
+            targetAppLaunchPort_ = uri.getPort();
+        }
+    }
+
+    /**
+     * Get the shared instance of a known app link property name. Names are matched ignoring case.
+     * Property names read by the {@link AppLinkTagExtractor} are already interned, so these are found by reference.
+     * Any name is looked up with a single hash lookup, and lower cased for a second lookup only if it has upper case letters.
+     *
+     * @param property App link property name
+     * @return The known property name instance or the given name if it is not a property used by the config
+     */
+    static String internProperty(String property) {
+        String knownProperty = KNOWN_PROPERTIES.get(property);
+        if (knownProperty == null && hasUpperCase(property)) {
+            knownProperty = KNOWN_PROPERTIES.get(property.toLowerCase(Locale.US));
+        }
+        return knownProperty != null ? knownProperty : property;
+    }
+
+    private static boolean hasUpperCase(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                return true;
+            }
+        }
+        return false;
+    }
+
 
     public boolean isLaunchIntentAvailable() {
         return (!TextUtils.isEmpty(targetAppLaunchScheme_) && !TextUtils.isEmpty(targetAppPackageName_));
@@ -0,0 +1,447 @@
+package io.branch.roots;
+
+import android.content.Context;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * <p>
+ * Two tier cache for the app link metadata resolved for urls. Entries are kept in an in-memory LRU cache and in an
+ * on-disk store under the app's cache directory, keyed by the normalized url. Entry life time is taken from the
+ * Cache-Control / Expires headers of the page response, or from the default TTL when the response doesn't specify one.
+ * The ETag / Last-Modified validators of the response are kept with the metadata, so that stale entries can be
+ * revalidated with a conditional request instead of loading and parsing the page again.
+ * </p>
+ */
+class AppLaunchConfigCache {
+
+    /* Default life time for the cache entries when the page response has no caching headers */
+    public static final long DEFAULT_TTL_MILLIS = 30 * 60 * 1000;
+    /* Expiry time for a "no-store" response, which is neither kept in memory nor written to disk */
+    static final long DO_NOT_STORE = -1;
+
+    private static final int MAX_MEMORY_ENTRIES = 64;
+    private static final int MAX_DISK_ENTRIES = 256;
+    private static final String CACHE_DIR_NAME = "roots_app_link_cache";
+
+    private static final String KEY_URL = "url";
+    private static final String KEY_EXPIRES_AT = "expires_at";
+    private static final String KEY_METADATA = "metadata";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "last_modified";
+
+    private static AppLaunchConfigCache instance_;
+    private static volatile long defaultTtlMillis_ = DEFAULT_TTL_MILLIS;
+
+    private final LruCache<String, Entry> memoryCache_;
+    private final File cacheDir_;
+
+    private AppLaunchConfigCache(Context context) {
+        memoryCache_ = new LruCache<>(MAX_MEMORY_ENTRIES);
+        cacheDir_ = new File(context.getCacheDir(), CACHE_DIR_NAME);
+    }
+
+    public static synchronized AppLaunchConfigCache getInstance(Context context) {
+        if (instance_ == null) {
+            instance_ = new AppLaunchConfigCache(context.getApplicationContext());
+        }
+        return instance_;
+    }
+
+    /**
+     * Sets the life time for the entries when the page response doesn't specify one with Cache-Control or Expires headers.
+     *
+     * @param defaultTtlMillis Default TTL in milliseconds. Set to 0 to cache only the responses with explicit caching headers.
+     */
+    public static void setDefaultTtl(long defaultTtlMillis) {
+        defaultTtlMillis_ = defaultTtlMillis;
+    }
+
+    /**
+     * Get the cache entry for the given url from the in-memory cache. Does not access the disk, so safe to call on main thread.
+     *
+     * @param url Url to get the cached metadata
+     * @return {@link Entry} for the url or null if not in memory
+     */
+    public Entry getFromMemory(String url) {
+        return memoryCache_.get(normalizeUrl(url));
+    }
+
+    /**
+     * Get the cache entry for the given url. Checks the in-memory cache first and then the disk store.
+     * Should not be called on main thread.
+     *
+     * @param url Url to get the cached metadata
+     * @return {@link Entry} for the url or null if there is no cached entry
+     */
+    public Entry get(String url) {
+        String key = normalizeUrl(url);
+        Entry entry = memoryCache_.get(key);
+        if (entry == null) {
+            entry = readFromDisk(key);
+            if (entry != null) {
+                memoryCache_.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Adds the app link metadata of the url to the cache. The response is not cached if it is a "no-store" response, or if
+     * it is neither cacheable nor has any validators for revalidating it later. Should not be called on main thread.
+     *
+     * @param url        Url for the metadata
+     * @param urlContent {@link URLContent} with the caching headers of the page response
+     * @param metadata   {@link JSONArray} with app link metadata for the url
+     * @return The {@link Entry} added to the cache or null if the response is not cached
+     */
+    public Entry put(String url, URLContent urlContent, JSONArray metadata) {
+        return put(url, urlContent, metadata, urlContent.getETag(), urlContent.getLastModified());
+    }
+
+    /**
+     * Updates a stale entry after the page is revalidated with a "304 Not Modified" response. Cached metadata is kept and the
+     * life time is refreshed with the caching headers of the revalidation response. Should not be called on main thread.
+     *
+     * @param url                 Url for the metadata
+     * @param staleEntry          The stale {@link Entry} that is revalidated
+     * @return The refreshed {@link Entry}, or the stale entry for this use only if the response is not stored
+     * @return The refreshed {@link Entry}
+     */
+    public Entry putRevalidated(String url, Entry staleEntry, URLContent notModifiedResponse) {
+        String eTag = notModifiedResponse.getETag() != null ? notModifiedResponse.getETag() : staleEntry.eTag_;
+        String lastModified = notModifiedResponse.getLastModified() != null ? notModifiedResponse.getLastModified() : staleEntry.lastModified_;
+        Entry entry = put(url, notModifiedResponse, staleEntry.metadata_, eTag, lastModified);
+        return entry != null ? entry : staleEntry;
+    }
+
+    private Entry put(String url, URLContent urlContent, JSONArray metadata, String eTag, String lastModified) {
+        long expiresAt = getExpiryTime(urlContent, System.currentTimeMillis());
+        Entry entry = null;
+        if (expiresAt == DO_NOT_STORE) {
+            // A previously stored response for the url should not be kept either
+            remove(normalizeUrl(url));
+        } else if (expiresAt > System.currentTimeMillis() || !TextUtils.isEmpty(eTag) || !TextUtils.isEmpty(lastModified)) {
+            String key = normalizeUrl(url);
+            entry = new Entry(key, metadata, expiresAt, eTag, lastModified);
+            memoryCache_.put(key, entry);
+            writeToDisk(key, entry);
+        }
+        return entry;
+    }
+
+    private void remove(String key) {
+        memoryCache_.remove(key);
+        //noinspection ResultOfMethodCallIgnored
+        getCacheFile(key).delete();
+    }
+
+    /**
+     * Remove all cached entries from memory and disk
+     */
+    public void clear() {
+        memoryCache_.evictAll();
+        File[] files = cacheDir_.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Calculates the expiry time for a response based on its Cache-Control and Expires headers.
+     *
+     * @param urlContent {@link URLContent} with the response headers
+     * @param now        Current time in milliseconds
+     * @return Expiry time in milliseconds. Value less than or equal to now if the response should be revalidated before use, which
+     * is still kept when it has validators. {@link #DO_NOT_STORE} if the response should not be stored at all.
+     */
+    static long getExpiryTime(URLContent urlContent, long now) {
+        String cacheControl = urlContent.getCacheControl();
+        if (!TextUtils.isEmpty(cacheControl)) {
+            // Directives are read in any order, no-store and no-cache win over max-age
+            boolean isNoStore = false;
+            boolean isNoCache = false;
+            String maxAge = null;
+            for (String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-store")) {
+                    isNoStore = true;
+                } else if (directive.equals("no-cache")) {
+                    isNoCache = true;
+                } else if (directive.startsWith("max-age=") && maxAge == null) {
+                    maxAge = directive.substring("max-age=".length()).replace("\"", "").trim();
+                }
+            }
+            if (isNoStore) {
+                return DO_NOT_STORE;
+            }
+            if (isNoCache) {
+                return now;
+            }
+            if (maxAge != null) {
+                try {
+                    return now + Long.parseLong(maxAge) * 1000;
+                } catch (NumberFormatException ignore) {
+                    return now;
+                }
+            }
+        }
+        if (urlContent.getExpires() > 0) {
+            if (urlContent.getDate() > 0) {
+                // Use the server clock for the life time
+                return now + (urlContent.getExpires() - urlContent.getDate());
+            }
+            return urlContent.getExpires();
+        }
+        return now + defaultTtlMillis_;
+    }
+
+    /**
+     * Normalizes the url for using as the cache key. Scheme and host are lower cased, default ports and fragments are removed.
+     *
+     * @param url Url to normalize
+     * @return Normalized url
+     */
+    static String normalizeUrl(String url) {
+        Uri uri = Uri.parse(url.trim());
+        String scheme = uri.getScheme();
+        String host = uri.getHost();
+        if (TextUtils.isEmpty(scheme) || TextUtils.isEmpty(host)) {
+            return url.trim();
+        }
+        scheme = scheme.toLowerCase(Locale.US);
+        StringBuilder normalizedUrl = new StringBuilder(url.length());
+        normalizedUrl.append(scheme).append("://").append(host.toLowerCase(Locale.US));
+        int port = uri.getPort();
+        if (port != -1 && !(port == 80 && scheme.equals("http")) && !(port == 443 && scheme.equals("https"))) {
+            normalizedUrl.append(':').append(port);
+        }
+        String path = uri.getEncodedPath();
+        normalizedUrl.append(TextUtils.isEmpty(path) ? "/" : path);
+        String query = uri.getEncodedQuery();
+        if (query != null) {
+            normalizedUrl.append('?').append(query);
+        }
+        return normalizedUrl.toString();
+    }
+
+    //------------------------------- Disk store ----------------------------------------//
+
+    private Entry readFromDisk(String key) {
+        File file = getCacheFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        Entry entry = null;
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, length);
+            }
+            entry = Entry.fromJson(new JSONObject(outputStream.toString("utf-8")));
+            if (!key.equals(entry.url_)) {
+                entry = null;
+            }
+        } catch (IOException | JSONException ignore) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        } finally {
+            closeQuietly(inputStream);
+        }
+        return entry;
+    }
+
+    private void writeToDisk(String key, Entry entry) {
+        if (!cacheDir_.exists() && !cacheDir_.mkdirs()) {
+            return;
+        }
+        File file = getCacheFile(key);
+        File tempFile = new File(cacheDir_, file.getName() + ".tmp");
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(tempFile);
+            outputStream.write(entry.toJson().toString().getBytes("utf-8"));
+            outputStream.close();
+            outputStream = null;
+            if (!tempFile.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+            }
+        } catch (IOException | JSONException ignore) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        } finally {
+            closeQuietly(outputStream);
+        }
+        trimDiskStore();
+    }
+
+    /**
+     * Removes the least recently written entries when the disk store is over the limit
+     */
+    private void trimDiskStore() {
+        File[] files = cacheDir_.listFiles();
+        if (files != null && files.length > MAX_DISK_ENTRIES) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File lhs, File rhs) {
+                    long diff = lhs.lastModified() - rhs.lastModified();
+                    return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+                }
+            });
+            for (int i = 0; i < files.length - MAX_DISK_ENTRIES; i++) {
+                //noinspection ResultOfMethodCallIgnored
+                files[i].delete();
+            }
+        }
+    }
+
+    private File getCacheFile(String key) {
+        return new File(cacheDir_, hash(key));
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("utf-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format(Locale.US, "%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | IOException ex) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Cached app link metadata for a url
+     * </p>
+     */
+    static class Entry {
+        private final String url_;
+        private final JSONArray metadata_;
+        private final long expiresAt_;
+        private final String eTag_;
+        private final String lastModified_;
+        /* Config parsed from the metadata on first use */
+        private volatile AppLaunchConfig configTemplate_;
+
+        Entry(String url, JSONArray metadata, long expiresAt, String eTag, String lastModified) {
+            url_ = url;
+            metadata_ = metadata;
+            expiresAt_ = expiresAt;
+            eTag_ = eTag;
+            lastModified_ = lastModified;
+        }
+
+        public boolean isFresh() {
+            return System.currentTimeMillis() < expiresAt_;
+        }
+
+        public JSONArray getMetadata() {
+            return metadata_;
+        }
+
+        /**
+         * Empty metadata is cached only by the resolutions without the WebView fallback. It does not tell whether the page adds
+         * the meta tags with javascript, so it cannot answer a resolution that reads the metadata with a WebView.
+         *
+         * @param useWebViewFallback True if the resolution reads the metadata with a WebView when the html source has none
+         * @return True if this entry can be used for the resolution
+         */
+        public boolean isUsableFor(boolean useWebViewFallback) {
+            return !useWebViewFallback || metadata_.length() > 0;
+        }
+
+        /**
+         * @return Value of the ETag header of the cached response or null
+         */
+        public String getETag() {
+            return eTag_;
+        }
+
+        /**
+         * @return Value of the Last-Modified header of the cached response or null
+         */
+        public String getLastModified() {
+            return lastModified_;
+        }
+
+        /**
+         * Creates a new {@link AppLaunchConfig} with the cached metadata. A new instance is created on each call
+         * so that the connection specific settings on the config are not shared with other connections.
+         * The metadata is parsed only once and copied for the later calls.
+         *
+         * @param actualUrl {@link String} with value for the target url
+         * @return {@link AppLaunchConfig} for the url
+         */
+        public AppLaunchConfig createAppLaunchConfig(String actualUrl) {
+            AppLaunchConfig configTemplate = configTemplate_;
+            if (configTemplate == null) {
+                configTemplate = new AppLaunchConfig(metadata_, actualUrl);
+                configTemplate_ = configTemplate;
+            }
+            return new AppLaunchConfig(configTemplate, actualUrl);
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put(KEY_URL, url_);
+            json.put(KEY_EXPIRES_AT, expiresAt_);
+            json.put(KEY_METADATA, metadata_);
+            if (eTag_ != null) {
+                json.put(KEY_ETAG, eTag_);
+            }
+            if (lastModified_ != null) {
+                json.put(KEY_LAST_MODIFIED, lastModified_);
+            }
+            return json;
+        }
+
+        static Entry fromJson(JSONObject json) throws JSONException {
+            JSONArray metadata = json.optJSONArray(KEY_METADATA);
+            if (metadata == null) {
+                throw new JSONException("Missing metadata");
+            }
+            return new Entry(json.getString(KEY_URL), metadata, json.optLong(KEY_EXPIRES_AT, 0),
+                    json.has(KEY_ETAG) ? json.getString(KEY_ETAG) : null,
+                    json.has(KEY_LAST_MODIFIED) ? json.getString(KEY_LAST_MODIFIED) : null);
+        }
+    }
+}
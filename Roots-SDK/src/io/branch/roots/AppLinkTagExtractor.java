@@ -0,0 +1,358 @@
+package io.branch.roots;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * <p>
+ * Streaming extractor for the App Link meta tags (&lt;meta property="al:*" content="..."&gt;) in an html document.
+ * The html is tokenized directly off the {@link Reader} in a single pass, so there is no need to load the page
+ * in a WebView to read the App Link metadata. Only the markup needed to find the meta tags is interpreted.
+ * Comments, doctype declarations and the raw text content of script and style elements are skipped.
+ * </p>
+ */
+class AppLinkTagExtractor {
+
+    private static final String APP_LINK_PROPERTY_PREFIX = "al:";
+    private static final String PROPERTY_KEY = "property";
+    private static final String CONTENT_KEY = "content";
+
+    private static final int EOF = -1;
+    private static final int BUFFER_SIZE = 1024;
+
+    private final Reader reader_;
+    private final char[] buffer_ = new char[BUFFER_SIZE];
+    private int bufferPos_;
+    private int bufferLen_;
+
+    // Reusable scratch buffers for tag names, attribute names and attribute values
+    private final StringBuilder name_ = new StringBuilder();
+    private final StringBuilder attrName_ = new StringBuilder();
+    private final StringBuilder attrValue_ = new StringBuilder();
+
+    private final JSONArray appLinkMetadata_ = new JSONArray();
+    private boolean stopAtHeadEnd_;
+    private boolean headEndReached_;
+
+    /**
+     * <p>
+     * Create an extractor for reading the App Link metadata from the given html stream.
+     * </p>
+     *
+     * @param reader {@link Reader} for the html source
+     */
+    public AppLinkTagExtractor(Reader reader) {
+        reader_ = reader;
+    }
+
+    /**
+     * <p>
+     * Stop reading the stream when the end of the html head is seen, ie on a "&lt;/head&gt;" or "&lt;body" tag.
+     * App Link metadata is expected to be in the head, so there is no need to read the rest of the document.
+     * </p>
+     *
+     * @param stopAtHeadEnd True to stop reading at the end of the html head
+     */
+    public void setStopAtHeadEnd(boolean stopAtHeadEnd) {
+        stopAtHeadEnd_ = stopAtHeadEnd;
+    }
+
+    /**
+     * @return True if the end of the html head is seen while reading the document
+     */
+    public boolean isHeadEndReached() {
+        return headEndReached_;
+    }
+
+    /**
+     * <p>
+     * Reads the html stream and collects all the App Link meta tags. The result is in the same format
+     * as the metadata collected by the javascript extraction, ie a {@link JSONArray} of objects with "property" and "content" keys.
+     * </p>
+     *
+     * @return {@link JSONArray} with the App Link metadata found in the document
+     * @throws IOException when there is an error reading the html stream
+     */
+    public JSONArray extract() throws IOException {
+        int c;
+        while (!(stopAtHeadEnd_ && headEndReached_) && (c = read()) != EOF) {
+            if (c == '<') {
+                readMarkup();
+            }
+        }
+        return appLinkMetadata_;
+    }
+
+    //------------------------------- Tokenizer ----------------------------------------//
+
+    private void readMarkup() throws IOException {
+        int c = read();
+        if (c == '!') {
+            skipDeclarationOrComment();
+        } else if (c == '?') {
+            skipPast('>');
+        } else if (c == '/') {
+            c = readTagName(read());
+            if (nameEquals(name_, "head")) {
+                headEndReached_ = true;
+            }
+            if (c == '<') {
+                // Start of the next markup
+                unread();
+            } else if (c != '>') {
+                skipPast('>');
+            }
+        } else if (isAsciiLetter(c)) {
+            readStartTag(c);
+        } else {
+            unread();
+        }
+    }
+
+    private void readStartTag(int firstChar) throws IOException {
+        int c = readTagName(firstChar);
+        boolean isMeta = nameEquals(name_, "meta");
+        if (nameEquals(name_, "body")) {
+            headEndReached_ = true;
+        }
+        String property = null;
+        String content = null;
+
+        // Parse the attributes until the end of the tag
+        while (c != EOF && c != '>') {
+            if (isWhitespace(c) || c == '/') {
+                c = read();
+                continue;
+            }
+            attrName_.setLength(0);
+            while (c != EOF && c != '=' && c != '>' && c != '/' && !isWhitespace(c)) {
+                attrName_.append((char) c);
+                c = read();
+            }
+            c = skipWhitespace(c);
+            if (c == '=') {
+                c = readAttributeValue(skipWhitespace(read()));
+                if (isMeta) {
+                    if (nameEquals(attrName_, PROPERTY_KEY)) {
+                        property = attrValue_.toString();
+                    } else if (nameEquals(attrName_, CONTENT_KEY)) {
+                        content = attrValue_.toString();
+                    }
+                }
+            }
+        }
+
+        if (isMeta) {
+            addAppLinkMetadata(property, content);
+        } else if (nameEquals(name_, "script") || nameEquals(name_, "style")
+                || nameEquals(name_, "textarea") || nameEquals(name_, "title")) {
+            skipRawText(name_.toString());
+        }
+    }
+
+    /**
+     * Reads an attribute value starting with the given character in to {@link #attrValue_} and returns the next character after the value.
+     */
+    private int readAttributeValue(int c) throws IOException {
+        attrValue_.setLength(0);
+        if (c == '"' || c == '\'') {
+            int quote = c;
+            while ((c = read()) != EOF && c != quote) {
+                appendValueChar(c);
+            }
+            return read();
+        }
+        while (c != EOF && c != '>' && !isWhitespace(c)) {
+            appendValueChar(c);
+            c = read();
+        }
+        return c;
+    }
+
+    private void appendValueChar(int c) throws IOException {
+        if (c == '&') {
+            readCharacterReference();
+        } else {
+            attrValue_.append((char) c);
+        }
+    }
+
+    /**
+     * Decodes the numeric character references and the most common named references in attribute values.
+     * Unknown references are kept as it is.
+     */
+    private void readCharacterReference() throws IOException {
+        int start = attrValue_.length();
+        attrValue_.append('&');
+        int c;
+        while ((c = read()) != EOF && c != ';' && (c == '#' || Character.isLetterOrDigit(c)) && attrValue_.length() - start < 10) {
+            attrValue_.append((char) c);
+        }
+        if (c != ';') {
+            if (c != EOF) {
+                unread();
+            }
+            return;
+        }
+        String ref = attrValue_.substring(start + 1);
+        int decoded = EOF;
+        if (ref.equals("amp")) {
+            decoded = '&';
+        } else if (ref.equals("quot")) {
+            decoded = '"';
+        } else if (ref.equals("apos")) {
+            decoded = '\'';
+        } else if (ref.equals("lt")) {
+            decoded = '<';
+        } else if (ref.equals("gt")) {
+            decoded = '>';
+        } else if (ref.startsWith("#")) {
+            try {
+                if (ref.length() > 2 && (ref.charAt(1) == 'x' || ref.charAt(1) == 'X')) {
+                    decoded = Integer.parseInt(ref.substring(2), 16);
+                } else {
+                    decoded = Integer.parseInt(ref.substring(1));
+                }
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        if (decoded != EOF && Character.isValidCodePoint(decoded)) {
+            attrValue_.setLength(start);
+            attrValue_.appendCodePoint(decoded);
+        } else {
+            attrValue_.append(';');
+        }
+    }
+
+    /**
+     * Reads a tag name starting with the given character in to {@link #name_} and returns the next character after the name.
+     * Name is ended at a "&lt;" as well, so that a stray "&lt;/" in raw text doesn't hide the next tag.
+     */
+    private int readTagName(int c) throws IOException {
+        name_.setLength(0);
+        while (c != EOF && c != '>' && c != '/' && c != '<' && !isWhitespace(c)) {
+            name_.append((char) c);
+            c = read();
+        }
+        return c;
+    }
+
+    private void skipDeclarationOrComment() throws IOException {
+        int c = read();
+        if (c == '-') {
+            c = read();
+            if (c == '-') {
+                // Comment. Skip till "-->"
+                int dashCount = 0;
+                while ((c = read()) != EOF) {
+                    if (c == '>' && dashCount >= 2) {
+                        return;
+                    }
+                    dashCount = c == '-' ? dashCount + 1 : 0;
+                }
+                return;
+            }
+        }
+        if (c != '>') {
+            skipPast('>');
+        }
+    }
+
+    /**
+     * Skips the raw text content of elements like script and style until the matching end tag. Same as the html parsers, the end
+     * tag name should be followed by a whitespace, "/" or "&gt;", eg. "&lt;/scripts" doesn't end a script.
+     */
+    private void skipRawText(String tagName) throws IOException {
+        int c;
+        while ((c = read()) != EOF) {
+            if (c == '<') {
+                c = read();
+                if (c == '/') {
+                    c = readTagName(read());
+                    if (nameEquals(name_, tagName) && (c == '>' || c == '/' || c == EOF || isWhitespace(c))) {
+                        if (c != '>') {
+                            skipPast('>');
+                        }
+                        return;
+                    }
+                }
+                unread();
+            }
+        }
+    }
+
+    private void skipPast(int target) throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != EOF && c != target);
+    }
+
+    private int skipWhitespace(int c) throws IOException {
+        while (isWhitespace(c)) {
+            c = read();
+        }
+        return c;
+    }
+
+    private void addAppLinkMetadata(String property, String content) {
+        if (property != null && property.regionMatches(true, 0, APP_LINK_PROPERTY_PREFIX, 0, APP_LINK_PROPERTY_PREFIX.length())) {
+            try {
+                JSONObject tag = new JSONObject();
+                tag.put(PROPERTY_KEY, AppLaunchConfig.internProperty(property));
+                if (content != null) {
+                    tag.put(CONTENT_KEY, content);
+                }
+                appLinkMetadata_.put(tag);
+            } catch (JSONException ignore) {
+            }
+        }
+    }
+
+    //------------------------------- Character stream ----------------------------------------//
+
+    private int read() throws IOException {
+        if (bufferPos_ >= bufferLen_) {
+            bufferLen_ = reader_.read(buffer_, 0, buffer_.length);
+            bufferPos_ = 0;
+            if (bufferLen_ <= 0) {
+                bufferLen_ = 0;
+                return EOF;
+            }
+        }
+        return buffer_[bufferPos_++];
+    }
+
+    /**
+     * Push back the last character read. Only a single character can be pushed back after a successful read.
+     */
+    private void unread() {
+        if (bufferPos_ > 0) {
+            bufferPos_--;
+        }
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+    }
+
+    private static boolean isAsciiLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean nameEquals(StringBuilder name, String expected) {
+        if (name.length() != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (Character.toLowerCase(name.charAt(i)) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,9 +1,8 @@
 package io.branch.roots;
 
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.net.Uri;
 import android.text.TextUtils;
@@ -11,21 +10,53 @@ import android.text.TextUtils;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by sojanpr on 4/7/16.
  * <p>
  * Class for handling the routing with the given {@link AppLaunchConfig}.
  * Try to open a matching app if installed otherwise fallback to play store or web url.
+ * Package and intent resolution queries are served from the {@link PackageStateCache}.
  * </p>
  */
 class AppRouter {
 
+    /* Threads for resolving the routing intents in parallel */
+    private static final int MAX_PARALLEL_CHECKS = 2;
+    private static final long IDLE_THREAD_KEEP_ALIVE_SEC = 10;
+    private static ThreadPoolExecutor parallelCheckExecutor_;
+
     public static boolean handleAppRouting(Context context, AppLaunchConfig appLaunchConfig, Roots.IRootsEvents callback) {
+        return handleAppRouting(context, appLaunchConfig, callback, false);
+    }
+
+    /**
+     * Routes to the app for the given {@link AppLaunchConfig}.
+     *
+     * @param context         Application context
+     * @param appLaunchConfig {@link AppLaunchConfig} for the link
+     * @param callback        {@link Roots.IRootsEvents} instance to callback routing status
+     * @param parallelChecks  True to resolve the actual url, target url and uri scheme intents concurrently instead of one after the other
+     * @return {@link Boolean} with value true if routing is handled
+     */
+    public static boolean handleAppRouting(Context context, AppLaunchConfig appLaunchConfig, Roots.IRootsEvents callback, boolean parallelChecks) {
         boolean routingHandled = true;
         try {
             if (appLaunchConfig.isLaunchIntentAvailable()) {
-                if (isAppInstalled(context, appLaunchConfig.getTargetAppPackageName())) {  //Open the app if app is installed
+                if (!PackageStateCache.getInstance(context).isAppInstalled(appLaunchConfig.getTargetAppPackageName())) { // If app is not installed
+                    handleAppNotInstalled(context, appLaunchConfig, callback);
+                } else if (parallelChecks) {
+                    launchWithParallelChecks(context, appLaunchConfig, callback);
+                } else { //Open the app if app is installed
                     // 1. Check if the actual url is a configured app link
                     if (launchOnAppLinkMatchingForUrl(context, appLaunchConfig.getActualUri(), appLaunchConfig, callback)) {
                         // Launched app with App link association for actual uri
@@ -39,9 +70,6 @@ class AppRouter {
                     else {
                         openAppWithUriScheme(context, appLaunchConfig, callback);
                     }
-
-                } else { // If app is not installed
-                    handleAppNotInstalled(context, appLaunchConfig, callback);
                 }
             } else {
                 openFallbackUrl(context, appLaunchConfig, callback);
@@ -57,30 +85,85 @@ class AppRouter {
     ////---------------------------- Private methods---------------------------------------------------------//
 
 
-    private static void openAppWithUriScheme(Context context, AppLaunchConfig appLaunchConfig, Roots.IRootsEvents callback) throws UnsupportedEncodingException {
-        Intent intent = new Intent();
-        intent.setAction(Intent.ACTION_VIEW);
-        intent.setPackage(appLaunchConfig.getTargetAppPackageName());
-        String uriString = appLaunchConfig.getTargetAppLaunchScheme() + "://";
-        if (!TextUtils.isEmpty(appLaunchConfig.getTargetAppLaunchHost())) {
-            uriString += appLaunchConfig.getTargetAppLaunchHost();
-        }
-        if (appLaunchConfig.getTargetAppLaunchPort() != AppLaunchConfig.PORT_UNDEFINED) {
-            uriString += ":" + appLaunchConfig.getTargetAppLaunchPort();
+    /**
+     * Resolves the actual url app link, target url app link and uri scheme intents concurrently and launches the first resolved one
+     * in the same precedence as the sequential checks. Worst case latency is about a single resolution instead of three.
+     */
+    private static void launchWithParallelChecks(final Context context, AppLaunchConfig appLaunchConfig, Roots.IRootsEvents callback) throws UnsupportedEncodingException {
+        Intent[] candidates = new Intent[]{
+                createAppLinkIntent(appLaunchConfig.getActualUri(), appLaunchConfig),
+                createAppLinkIntent(appLaunchConfig.getTargetUri(), appLaunchConfig),
+                appLaunchConfig.createLaunchIntent()};
+        List<Future<ComponentName>> resolutions = new ArrayList<>();
+        // Resolve the first candidate on the calling thread while the others are resolved in background
+        for (int i = 1; i < candidates.length; i++) {
+            final Intent candidate = candidates[i];
+            Future<ComponentName> resolution = null;
+            if (candidate != null) {
+                try {
+                    resolution = getParallelCheckExecutor().submit(new Callable<ComponentName>() {
+                        @Override
+                        public ComponentName call() throws Exception {
+                            return PackageStateCache.getInstance(context).resolveActivity(candidate);
+                        }
+                    });
+                } catch (RejectedExecutionException ignore) {
+                }
+            }
+            resolutions.add(resolution);
         }
-        if (!TextUtils.isEmpty(appLaunchConfig.getTargetAppLaunchPath())) {
-            uriString += appLaunchConfig.getTargetAppLaunchPath();
+        for (int i = 0; i < candidates.length; i++) {
+            if (candidates[i] == null) {
+                continue;
+            }
+            ComponentName resolvedActivity = null;
+            Future<ComponentName> resolution = i > 0 ? resolutions.get(i - 1) : null;
+            if (resolution != null) {
+                try {
+                    resolvedActivity = resolution.get();
+                } catch (InterruptedException ex) {
+                    // Keep the interrupt for the caller and resolve on the calling thread instead
+                    Thread.currentThread().interrupt();
+                    resolution = null;
+                } catch (ExecutionException ex) {
+                    resolution = null;
+                }
+            }
+            if (resolution == null) {
+                resolvedActivity = PackageStateCache.getInstance(context).resolveActivity(candidates[i]);
+            }
+            if (resolvedActivity != null) {
+                context.startActivity(candidates[i]);
+                if (callback != null) {
+                    callback.onAppLaunched(appLaunchConfig.getTargetAppName(), appLaunchConfig.getTargetAppPackageName());
+                }
+                return;
+            }
         }
+        //In case of intent not resolved even if the app is installed
+        handleAppNotInstalled(context, appLaunchConfig, callback);
+    }
 
-        uriString += "?" + Defines.APP_CONNECTOR_LAUNCH_KEY + "=True";
-        uriString += "&" + Defines.APP_CONNECTOR_FALLBACK_URL + "=" + appLaunchConfig.getTargetAppFallbackUrl();
+    private static synchronized ThreadPoolExecutor getParallelCheckExecutor() {
+        if (parallelCheckExecutor_ == null) {
+            parallelCheckExecutor_ = new ThreadPoolExecutor(MAX_PARALLEL_CHECKS, MAX_PARALLEL_CHECKS, IDLE_THREAD_KEEP_ALIVE_SEC, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger threadCount_ = new AtomicInteger();
 
-        if (!TextUtils.isEmpty(appLaunchConfig.getTargetAppLaunchParams())) {
-            uriString += "&" + appLaunchConfig.getTargetAppLaunchParams();
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "Roots-RoutingCheck-" + threadCount_.incrementAndGet());
+                }
+            });
+            // Routing is occasional, so the check threads should not stay alive between the routings
+            parallelCheckExecutor_.allowCoreThreadTimeOut(true);
         }
-        Uri uri = Uri.parse(uriString);
-        intent.setData(uri);
-        if (intent.resolveActivity(context.getPackageManager()) != null) {
+        return parallelCheckExecutor_;
+    }
+
+    private static void openAppWithUriScheme(Context context, AppLaunchConfig appLaunchConfig, Roots.IRootsEvents callback) throws UnsupportedEncodingException {
+        Intent intent = appLaunchConfig.createLaunchIntent();
+        if (PackageStateCache.getInstance(context).resolveActivity(intent) != null) {
             context.startActivity(intent);
             if (callback != null) {
                 callback.onAppLaunched(appLaunchConfig.getTargetAppName(), appLaunchConfig.getTargetAppPackageName());
@@ -132,26 +215,36 @@ class AppRouter {
      */
     private static boolean launchOnAppLinkMatchingForUrl(Context context, String url, AppLaunchConfig appLaunchConfig, Roots.IRootsEvents callback) {
         boolean resolvedIntent = false;
+        Intent intent = createAppLinkIntent(url, appLaunchConfig);
+        if (intent != null && PackageStateCache.getInstance(context).resolveActivity(intent) != null) {
+            context.startActivity(intent);
+            if (callback != null) {
+                callback.onAppLaunched(appLaunchConfig.getTargetAppName(), appLaunchConfig.getTargetAppPackageName());
+            }
+            resolvedIntent = true;
+        }
+        return resolvedIntent;
+    }
+
+    /**
+     * Creates the intent for opening the given url in the target app as an Android App link.
+     *
+     * @return {@link Intent} for the url or null if the url is not a possible App link
+     */
+    private static Intent createAppLinkIntent(String url, AppLaunchConfig appLaunchConfig) {
+        Intent intent = null;
         Uri uri = Uri.parse(url);
         if (uri.getScheme() != null) {
             // Check if a possible App link. Android App link urls only support schemes https and http
             if ((uri.getScheme().equalsIgnoreCase("https") || uri.getScheme().equalsIgnoreCase("http"))
                     && !TextUtils.isEmpty(uri.getHost())) {
-
-                Intent intent = new Intent();
+                intent = new Intent();
                 intent.setAction(Intent.ACTION_VIEW);
                 intent.setPackage(appLaunchConfig.getTargetAppPackageName());
                 intent.setData(uri);
-                if (intent.resolveActivity(context.getPackageManager()) != null) {
-                    context.startActivity(intent);
-                    if (callback != null) {
-                        callback.onAppLaunched(appLaunchConfig.getTargetAppName(), appLaunchConfig.getTargetAppPackageName());
-                    }
-                    resolvedIntent = true;
-                }
             }
         }
-        return resolvedIntent;
+        return intent;
     }
 
     /**
@@ -171,7 +264,7 @@ class AppRouter {
         Intent intent = new Intent();
         intent.setAction(Intent.ACTION_VIEW);
         intent.setData(Uri.parse(url));
-        final List<ResolveInfo> matchingApps = context.getPackageManager().queryIntentActivities(intent, PackageManager.MATCH_DEFAULT_ONLY);
+        final List<ResolveInfo> matchingApps = PackageStateCache.getInstance(context).queryIntentActivities(intent);
         ArrayList<ResolveInfo> nonBrowserAppResolveInfo = new ArrayList<>();
         // Remove the browser apps form resolved info
         for (ResolveInfo resolveInfo : matchingApps) {
@@ -195,25 +288,5 @@ class AppRouter {
         return isAppResolved;
     }
 
-    /**
-     * Checks if app with given package name is available on the device
-     *
-     * @param context       Current context
-     * @param targetPackage Package name of the app to check
-     * @return A {@link Boolean} with value true if the given app is installed else false
-     */
-    private static boolean isAppInstalled(Context context, String targetPackage) {
-        boolean isAppInstalled = false;
-        PackageManager pm = context.getPackageManager();
-        try {
-            PackageInfo info = pm.getPackageInfo(targetPackage, PackageManager.GET_META_DATA);
-            if (info != null) {
-                isAppInstalled = true;
-            }
-        } catch (PackageManager.NameNotFoundException ignore) {
-        }
-        return isAppInstalled;
-    }
-
 
 }
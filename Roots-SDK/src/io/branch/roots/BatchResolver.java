@@ -0,0 +1,207 @@
+package io.branch.roots;
+
+import android.content.Context;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <p>
+ * Resolves the app link metadata for a list of urls with a limit on the number of urls loaded in parallel
+ * and on the number of parallel connections to the same host. Results are delivered on the main thread as each url
+ * is resolved. Urls are resolved through {@link RootsFinder}, so the cached metadata and in-flight resolutions are shared
+ * with the connections and prefetches. Urls with fresh metadata in memory are delivered synchronously. The others are loaded
+ * on the executor shared by all the batches, with the limits of the batch on top of it.
+ * </p>
+ */
+class BatchResolver implements RootsConnection {
+
+    private final Context context_;
+    private final int maxConcurrency_;
+    private final int maxConnectionsPerHost_;
+    private final Roots.IRootsBatchEvents callback_;
+    private final LinkedList<String> pendingUrls_;
+    private final HashMap<String, Integer> activeConnectionsPerHost_ = new HashMap<>();
+    private final ArrayList<RootsConnection> activeResolutions_ = new ArrayList<>();
+    private String defaultUserAgent_;
+    private int activeCount_;
+    private boolean isScheduling_;
+    private boolean isRescheduleNeeded_;
+    private volatile boolean isCancelled_;
+    private volatile boolean isDone_;
+
+    /**
+     * @param context               Application context
+     * @param urls                  Urls to resolve
+     * @param maxConcurrency        Maximum number of urls resolved in parallel
+     * @param maxConnectionsPerHost Maximum number of urls from the same host resolved in parallel
+     * @param callback              {@link Roots.IRootsBatchEvents} for the results
+     */
+    BatchResolver(Context context, List<String> urls, int maxConcurrency, int maxConnectionsPerHost, Roots.IRootsBatchEvents callback) {
+        context_ = context.getApplicationContext();
+        maxConcurrency_ = Math.max(1, maxConcurrency);
+        maxConnectionsPerHost_ = Math.max(1, maxConnectionsPerHost);
+        callback_ = callback;
+        pendingUrls_ = new LinkedList<>(urls);
+    }
+
+    /**
+     * Starts resolving the urls. Should be called from main thread.
+     *
+     * @return {@link RootsConnection} handle for cancelling the batch
+     */
+    RootsConnection start() {
+        schedule();
+        return this;
+    }
+
+    @Override
+    public void cancel() {
+        ArrayList<RootsConnection> activeResolutions;
+        synchronized (this) {
+            if (isDone_ || isCancelled_) {
+                return;
+            }
+            isCancelled_ = true;
+            pendingUrls_.clear();
+            activeResolutions = new ArrayList<>(activeResolutions_);
+            activeResolutions_.clear();
+        }
+        for (RootsConnection resolution : activeResolutions) {
+            resolution.cancel();
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return isCancelled_;
+    }
+
+    @Override
+    public boolean isDone() {
+        return isDone_ || isCancelled_;
+    }
+
+    /**
+     * Starts resolving the pending urls within the concurrency limits. Results for the cached urls are delivered
+     * synchronously, so scheduling is guarded against the re-entrant calls from the result callbacks.
+     */
+    private void schedule() {
+        synchronized (this) {
+            if (isScheduling_) {
+                isRescheduleNeeded_ = true;
+                return;
+            }
+            isScheduling_ = true;
+        }
+        boolean isRescheduleNeeded = true;
+        while (isRescheduleNeeded) {
+            ArrayList<String> urlsToStart = new ArrayList<>();
+            synchronized (this) {
+                isRescheduleNeeded_ = false;
+                for (Iterator<String> iterator = pendingUrls_.iterator(); iterator.hasNext() && activeCount_ < maxConcurrency_; ) {
+                    String url = iterator.next();
+                    String host = getHost(url);
+                    Integer hostConnections = activeConnectionsPerHost_.get(host);
+                    if (hostConnections == null || hostConnections < maxConnectionsPerHost_) {
+                        iterator.remove();
+                        activeConnectionsPerHost_.put(host, hostConnections == null ? 1 : hostConnections + 1);
+                        activeCount_++;
+                        urlsToStart.add(url);
+                    }
+                }
+            }
+            for (String url : urlsToStart) {
+                startResolution(url);
+            }
+            synchronized (this) {
+                isRescheduleNeeded = isRescheduleNeeded_;
+                if (!isRescheduleNeeded) {
+                    isScheduling_ = false;
+                }
+            }
+        }
+        checkForCompletion();
+    }
+
+    private void startResolution(final String url) {
+        if (isCancelled_) {
+            return;
+        }
+        // Route with the cached app link metadata if available in memory
+        AppLaunchConfigCache.Entry cacheEntry = AppLaunchConfigCache.getInstance(context_).getFromMemory(url);
+        if (cacheEntry != null && cacheEntry.isFresh()) {
+            onResolutionFinished(url, null, cacheEntry.createAppLaunchConfig(url), RootsFinder.CONN_EXTRACT_ERR.NO_ERROR);
+            return;
+        }
+        if (defaultUserAgent_ == null) {
+            defaultUserAgent_ = RootsFinder.getUserAgentString(context_, url, null, false);
+        }
+        final RootsConnection[] resolution = new RootsConnection[1];
+        resolution[0] = RootsFinder.resolve(context_, url, RootsFinder.getUserAgentString(context_, url, defaultUserAgent_), false, RootsFinder.getBatchExecutor(), RootsFinder.NO_TIMEOUT,
+                new RootsFinder.IRootsConnectionExtractorEvents() {
+                    @Override
+                    public void onAppLaunchConfigAvailable(AppLaunchConfig appLaunchConfig, RootsFinder.CONN_EXTRACT_ERR err) {
+                        onResolutionFinished(url, resolution[0], appLaunchConfig, err);
+                    }
+                });
+        synchronized (this) {
+            if (!resolution[0].isDone()) {
+                activeResolutions_.add(resolution[0]);
+            }
+        }
+    }
+
+    private void onResolutionFinished(String url, RootsConnection resolution, AppLaunchConfig appLaunchConfig, RootsFinder.CONN_EXTRACT_ERR err) {
+        synchronized (this) {
+            if (isCancelled_) {
+                return;
+            }
+            if (resolution != null) {
+                activeResolutions_.remove(resolution);
+            }
+            activeCount_--;
+            String host = getHost(url);
+            Integer hostConnections = activeConnectionsPerHost_.get(host);
+            if (hostConnections != null && hostConnections > 1) {
+                activeConnectionsPerHost_.put(host, hostConnections - 1);
+            } else {
+                activeConnectionsPerHost_.remove(host);
+            }
+        }
+        if (callback_ != null) {
+            callback_.onLinkResolved(url, appLaunchConfig, err == RootsFinder.CONN_EXTRACT_ERR.NO_ERROR);
+        }
+        schedule();
+    }
+
+    private void checkForCompletion() {
+        boolean isFinished;
+        synchronized (this) {
+            isFinished = !isDone_ && !isCancelled_ && !isScheduling_ && activeCount_ == 0 && pendingUrls_.isEmpty();
+            if (isFinished) {
+                isDone_ = true;
+            }
+        }
+        if (isFinished) {
+            if (callback_ != null) {
+                callback_.onBatchFinished();
+            }
+        }
+    }
+
+    private static String getHost(String url) {
+        String host = null;
+        try {
+            host = Uri.parse(url).getHost();
+        } catch (Exception ignore) {
+        }
+        return TextUtils.isEmpty(host) ? "" : host.toLowerCase(Locale.US);
+    }
+}
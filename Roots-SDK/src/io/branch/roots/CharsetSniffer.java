@@ -0,0 +1,143 @@
+package io.branch.roots;
+
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * <p>
+ * Detects the charset of an html document in the same order as the browsers, ie. byte order mark, then the charset of
+ * the Content-Type header and then a prescan of the start of the document for a &lt;meta charset&gt; or
+ * &lt;meta http-equiv="Content-Type"&gt; tag. Defaults to UTF-8 when none of these declares a supported charset.
+ * </p>
+ */
+class CharsetSniffer {
+
+    /* Number of bytes at the start of the document looked at for a meta charset declaration */
+    public static final int MAX_PRESCAN_BYTES = 1024;
+    public static final String DEFAULT_CHARSET = "UTF-8";
+
+    private static final String CHARSET_KEY = "charset";
+
+    /**
+     * Detects the charset of the html document in the given stream. The bytes read for detection are pushed back to the
+     * stream, except a byte order mark, so that the stream can be decoded from the start of the document.
+     *
+     * @param stream      {@link PushbackInputStream} for the document with a push back buffer of at least {@link #MAX_PRESCAN_BYTES}
+     * @param contentType Value of the Content-Type header or null
+     * @return {@link Charset} of the document
+     * @throws IOException on any error while reading the stream
+     */
+    public static Charset detectCharset(PushbackInputStream stream, String contentType) throws IOException {
+        byte[] prefix = new byte[MAX_PRESCAN_BYTES];
+        int length = 0;
+        int read;
+        while (length < prefix.length && (read = stream.read(prefix, length, prefix.length - length)) != -1) {
+            length += read;
+        }
+        Charset charset;
+        int bomLength = 0;
+        if (length >= 3 && (prefix[0] & 0xFF) == 0xEF && (prefix[1] & 0xFF) == 0xBB && (prefix[2] & 0xFF) == 0xBF) {
+            charset = toCharset("UTF-8");
+            bomLength = 3;
+        } else if (length >= 2 && (prefix[0] & 0xFF) == 0xFE && (prefix[1] & 0xFF) == 0xFF) {
+            charset = toCharset("UTF-16BE");
+            bomLength = 2;
+        } else if (length >= 2 && (prefix[0] & 0xFF) == 0xFF && (prefix[1] & 0xFF) == 0xFE) {
+            charset = toCharset("UTF-16LE");
+            bomLength = 2;
+        } else {
+            charset = toCharset(getContentTypeCharset(contentType));
+            if (charset == null) {
+                charset = toCharset(prescanMetaCharset(prefix, length));
+            }
+        }
+        stream.unread(prefix, bomLength, length - bomLength);
+        return charset != null ? charset : Charset.forName(DEFAULT_CHARSET);
+    }
+
+    /**
+     * @param contentType Value of a Content-Type header, eg. "text/html; charset=ISO-8859-1"
+     * @return Value of the charset parameter or null if there is no charset parameter
+     */
+    public static String getContentTypeCharset(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int paramsStart = contentType.indexOf(';');
+        return paramsStart < 0 ? null : findCharsetValue(contentType.substring(paramsStart).toLowerCase(Locale.US), 0);
+    }
+
+    /**
+     * Looks for the charset declared by a meta tag in the start of the document. Tags are not fully parsed, a charset
+     * value in any meta tag is taken, which covers both the charset attribute and the charset in the content attribute.
+     */
+    private static String prescanMetaCharset(byte[] prefix, int length) {
+        // Charset names are ascii, so the bytes can be read as latin-1 characters for any ascii compatible encoding
+        String head = new String(prefix, 0, length, Charset.forName("ISO-8859-1")).toLowerCase(Locale.US);
+        int tagStart = head.indexOf("<meta");
+        while (tagStart >= 0) {
+            int tagEnd = head.indexOf('>', tagStart);
+            if (tagEnd < 0) {
+                tagEnd = head.length();
+            }
+            String charset = findCharsetValue(head.substring(0, tagEnd), tagStart);
+            if (charset != null) {
+                // A document that can be prescanned as ascii cannot be UTF-16, browsers use UTF-8 in this case
+                return charset.startsWith("utf-16") ? DEFAULT_CHARSET : charset;
+            }
+            tagStart = head.indexOf("<meta", tagEnd);
+        }
+        return null;
+    }
+
+    /**
+     * Finds the value of the first "charset=value" in the given lower case string from the given index.
+     */
+    private static String findCharsetValue(String value, int fromIndex) {
+        int keyStart = value.indexOf(CHARSET_KEY, fromIndex);
+        while (keyStart >= 0) {
+            int pos = skipWhitespace(value, keyStart + CHARSET_KEY.length());
+            if (pos < value.length() && value.charAt(pos) == '=') {
+                pos = skipWhitespace(value, pos + 1);
+                if (pos < value.length() && (value.charAt(pos) == '"' || value.charAt(pos) == '\'')) {
+                    pos++;
+                }
+                int end = pos;
+                while (end < value.length() && isCharsetNameChar(value.charAt(end))) {
+                    end++;
+                }
+                if (end > pos) {
+                    return value.substring(pos, end);
+                }
+            }
+            keyStart = value.indexOf(CHARSET_KEY, keyStart + CHARSET_KEY.length());
+        }
+        return null;
+    }
+
+    private static int skipWhitespace(String value, int pos) {
+        while (pos < value.length() && Character.isWhitespace(value.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isCharsetNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.' || c == ':';
+    }
+
+    /**
+     * @return {@link Charset} for the given name or null if the name is null or the charset is not supported
+     */
+    private static Charset toCharset(String charsetName) {
+        if (charsetName != null) {
+            try {
+                return Charset.forName(charsetName);
+            } catch (IllegalArgumentException ignore) {
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,84 @@
+package io.branch.roots;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <p>
+ * {@link InputStream} that counts the bytes read from the underlying stream and optionally stops
+ * reading once a byte limit is reached. Reaching the limit is reported as end of stream.
+ * </p>
+ */
+class CountingInputStream extends FilterInputStream {
+
+    public static final long NO_LIMIT = -1;
+
+    private final long maxBytes_;
+    private long bytesRead_;
+
+    /**
+     * @param in       {@link InputStream} to read from
+     * @param maxBytes Maximum number of bytes to read from the stream. {@link #NO_LIMIT} for reading the whole stream.
+     */
+    public CountingInputStream(InputStream in, long maxBytes) {
+        super(in);
+        maxBytes_ = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (isLimitReached()) {
+            return -1;
+        }
+        int b = super.read();
+        if (b != -1) {
+            bytesRead_++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        if (isLimitReached()) {
+            return -1;
+        }
+        if (maxBytes_ != NO_LIMIT) {
+            count = (int) Math.min(count, maxBytes_ - bytesRead_);
+        }
+        int length = super.read(buffer, offset, count);
+        if (length > 0) {
+            bytesRead_ += length;
+        }
+        return length;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        if (maxBytes_ != NO_LIMIT) {
+            byteCount = Math.min(byteCount, maxBytes_ - bytesRead_);
+        }
+        long skipped = super.skip(byteCount);
+        bytesRead_ += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * @return Number of bytes read from the underlying stream so far
+     */
+    public long getBytesRead() {
+        return bytesRead_;
+    }
+
+    /**
+     * @return True if the stream stopped reading since the byte limit is reached
+     */
+    public boolean isLimitReached() {
+        return maxBytes_ != NO_LIMIT && bytesRead_ >= maxBytes_;
+    }
+}
@@ -2,21 +2,43 @@ package io.branch.roots;
 
 import android.app.Activity;
 import android.app.Application;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.text.TextUtils;
 
-import java.util.HashMap;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by sojanpr on 4/12/16.
  * <p>
  * Class for handling the deep link routing up on application launch by App connector SDK.
  * The deep link activity is figured out by matching the "al:android:url" metadata for the activity.
+ * Route patterns are loaded in to a {@link RouteTable} so that the most specific matching route is picked.
  * The matching activity is launched automatically with the parameter values specified in the deep link path
  * </p>
  */
@@ -25,13 +47,56 @@ class DeeplinkRouter {
     private int activityCnt_;
     private static final String ANDROID_AL_URL_KEY = "al:android:url";
     private static final String WEB_AL_URL_KEY = "al:web:url";
+    private static final String ROUTE_TABLE_FILE_NAME = "roots_route_table.json";
+    private static final String ROUTE_TABLE_KEY = "key";
+    private static final long IDLE_THREAD_KEEP_ALIVE_SEC = 10;
+    /* Route tables for the strong "al:android:url" match and the weak "al:web:url" match */
+    private volatile RouteTable appLinkRoutes_;
+    private volatile RouteTable webRoutes_;
+    private final Roots.IRouteRegistry routeRegistry_;
+    /* Maximum time the launched activity waits for an asynchronous routing. Routing is done synchronously if not positive */
+    private long asyncRoutingMaxWaitMillis_;
+    private ThreadPoolExecutor routingExecutor_;
+    private Handler mainHandler_;
 
 
     public DeeplinkRouter() {
+        this(null);
+    }
+
+    /**
+     * @param routeRegistry {@link Roots.IRouteRegistry} generated from the {@link RootsRoute} annotations. Null to read the routes from the manifest.
+     */
+    public DeeplinkRouter(Roots.IRouteRegistry routeRegistry) {
         activityCnt_ = 0;
+        routeRegistry_ = routeRegistry;
+    }
+
+    /**
+     * <p>
+     * Resolves the deep link on a background thread instead of the main thread. Only the final {@code startActivity} is posted
+     * to the main thread. If the routing doesn't finish within the given time the app stays on the launched activity.
+     * </p>
+     * <p>
+     * Without asynchronous routing the deep link is resolved on the main thread once the route tables are loaded. If the
+     * tables are still being loaded in background on launch, the deep link is resolved in background without a time limit
+     * instead of blocking the main thread on the loading.
+     * </p>
+     *
+     * @param maxWaitMillis Maximum time in milliseconds the launched activity waits for the routing
+     */
+    public void setAsyncRouting(long maxWaitMillis) {
+        asyncRoutingMaxWaitMillis_ = maxWaitMillis;
     }
 
-    public void enable(Application application) {
+    public void enable(final Application application) {
+        if (routeRegistry_ != null) {
+            // Routes are known at compile time. Building the tables from the registry is cheap and needs no PackageManager query
+            buildRouteTables(routeRegistry_);
+        } else {
+            // Load the route tables in background so that the first Roots launch doesn't need to scan the manifest
+            startLoadingRouteTables(application);
+        }
         Application.ActivityLifecycleCallbacks lifecycleCallbacks_ = new Application.ActivityLifecycleCallbacks() {
             @Override
             public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
@@ -40,9 +105,16 @@ class DeeplinkRouter {
             @Override
             public void onActivityStarted(Activity activity) {
                 if (activityCnt_ == 0 && isActivityLaunchedByRoots(activity)) {
-                    Intent intent = getAnyDeepLinkMatchIntent(activity);
-                    if (intent != null) {
-                        activity.startActivity(intent);
+                    if (asyncRoutingMaxWaitMillis_ > 0) {
+                        routeAsync(activity, asyncRoutingMaxWaitMillis_);
+                    } else if (appLinkRoutes_ == null) {
+                        // Route tables are being loaded in background
+                        routeAsync(activity, 0);
+                    } else {
+                        Intent intent = getAnyDeepLinkMatchIntent(activity, activity.getIntent().getData());
+                        if (intent != null) {
+                            activity.startActivity(intent);
+                        }
                     }
                 }
                 activityCnt_++;
@@ -72,6 +144,19 @@ class DeeplinkRouter {
         application.registerActivityLifecycleCallbacks(lifecycleCallbacks_);
     }
 
+    private void startLoadingRouteTables(final Application application) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    loadRouteTables(application);
+                } catch (PackageManager.NameNotFoundException ignore) {
+                }
+            }
+        }, "Roots-RouteTable").start();
+    }
+
     /**
      * Checks if the activity is launched by App Connector SDK from some other application.
      *
@@ -103,48 +188,75 @@ class DeeplinkRouter {
         return isRootsDeeplinkLaunch;
     }
 
-    private Intent getAnyDeepLinkMatchIntent(Activity activity) {
-        Intent intent = null;
-        if (activity != null && activity.getIntent() != null && activity.getIntent().getData() != null) {
-            Uri launchedUri = activity.getIntent().getData();
-            String launcherUriStr = launchedUri.toString().toLowerCase();
-            String fallbackUri = launchedUri.getQueryParameter(Defines.APP_CONNECTOR_FALLBACK_URL);
-            HashMap<String, String> fallBackUrlActivityMap_ = new HashMap<>();
-            try {
-                PackageInfo info = activity.getPackageManager().getPackageInfo(activity.getPackageName(), PackageManager.GET_ACTIVITIES | PackageManager.GET_META_DATA);
-                ActivityInfo[] activityInfos = info.activities;
-
-                if (activityInfos != null) {
-                    boolean strongMatchFound = false;
-                    for (ActivityInfo activityInfo : activityInfos) {
-                        if (activityInfo != null && activityInfo.metaData != null) {
-                            // Check if any activity is filtering the fallback url. This used to do a weak matching in case strong URI match not found
-                            if (!TextUtils.isEmpty(fallbackUri)) {
-                                String fallbackUrlPattern = activityInfo.metaData.getString(WEB_AL_URL_KEY);
-                                if (!TextUtils.isEmpty(fallbackUrlPattern)) {
-                                    if (Matcher.checkUriMatchForPattern(fallbackUri, fallbackUrlPattern)) {
-                                        fallBackUrlActivityMap_.put(activityInfo.name, fallbackUrlPattern);
-                                    }
-                                }
-                            }
-                            // Check for a  potential URI path for any strong match
-                            if (activityInfo.metaData.getString(ANDROID_AL_URL_KEY) != null) {
-                                String deeplinkUriPattern = activityInfo.metaData.getString(ANDROID_AL_URL_KEY);
-                                if (Matcher.checkUriMatchForPattern(launcherUriStr, deeplinkUriPattern)) {
-                                    strongMatchFound = true;
-                                    intent = Matcher.createTargetIntent(activity, activityInfo.name, launcherUriStr, deeplinkUriPattern);
-                                    break;
-                                }
-                            }
-                        }
-                    }
-                    if (!strongMatchFound) { // If there  is not strong URI match check for a fallback URL match
-                        if (fallBackUrlActivityMap_.size() > 0) {
-                            String targetActivityName = fallBackUrlActivityMap_.keySet().iterator().next();
-                            String fallbackUriPattern = fallBackUrlActivityMap_.get(targetActivityName);
-                            intent = Matcher.createTargetIntent(activity, targetActivityName, fallbackUri, fallbackUriPattern);
+    /**
+     * Resolves the deep link for the launched activity in background and starts the matching activity on the main thread,
+     * unless the max wait time is over or the launched activity is gone or finishing by then. The activity is not held
+     * while the deep link is resolved.
+     *
+     * @param maxWaitMillis Maximum time in milliseconds the launched activity waits for the routing. No limit if not positive
+     */
+    private void routeAsync(Activity activity, long maxWaitMillis) {
+        final Uri launchedUri = activity.getIntent().getData();
+        final Context context = activity.getApplicationContext();
+        final WeakReference<Activity> activityRef = new WeakReference<>(activity);
+        final AtomicBoolean isRoutingDone = new AtomicBoolean(false);
+        final Runnable timeoutRunnable = new Runnable() {
+            @Override
+            public void run() {
+                isRoutingDone.set(true);
+            }
+        };
+        if (routingExecutor_ == null) {
+            mainHandler_ = new Handler(Looper.getMainLooper());
+            routingExecutor_ = new ThreadPoolExecutor(1, 1, IDLE_THREAD_KEEP_ALIVE_SEC, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger threadCount_ = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Roots-Router-" + threadCount_.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // Routing happens only on app launch, so the thread should not stay alive after it
+            routingExecutor_.allowCoreThreadTimeOut(true);
+        }
+        if (maxWaitMillis > 0) {
+            mainHandler_.postDelayed(timeoutRunnable, maxWaitMillis);
+        }
+        routingExecutor_.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Intent intent = getAnyDeepLinkMatchIntent(context, launchedUri);
+                mainHandler_.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mainHandler_.removeCallbacks(timeoutRunnable);
+                        Activity activity = activityRef.get();
+                        if (isRoutingDone.compareAndSet(false, true) && intent != null && activity != null && !activity.isFinishing()) {
+                            activity.startActivity(intent);
                         }
                     }
+                });
+            }
+        });
+    }
+
+    private Intent getAnyDeepLinkMatchIntent(Context context, Uri launchedUri) {
+        Intent intent = null;
+        if (launchedUri != null) {
+            UriView launchedUriView = new UriView(launchedUri.toString());
+            String fallbackUri = launchedUriView.getQueryParameter(Defines.APP_CONNECTOR_FALLBACK_URL);
+            try {
+                loadRouteTables(context.getApplicationContext());
+                // Check for a strong URI match first. If there is no strong match check for an activity filtering the fallback url
+                RouteTable.RouteMatch match = appLinkRoutes_.match(launchedUriView, true);
+                if (match == null && !TextUtils.isEmpty(fallbackUri)) {
+                    match = webRoutes_.match(new UriView(fallbackUri), false);
+                }
+                if (match != null) {
+                    intent = Matcher.createTargetIntent(context, match);
                 }
             } catch (PackageManager.NameNotFoundException | ClassNotFoundException ignore) {
             }
@@ -152,5 +264,140 @@ class DeeplinkRouter {
         return intent;
     }
 
+    /**
+     * <p>
+     * Loads the route tables if not loaded already. Route tables are persisted in the cache directory and reused as long as the
+     * app package is not updated, so the manifest is scanned only once per app install or update. The app package is identified by
+     * the path, size and modification time of the apk, which doesn't need any PackageManager query. If the tables are being loaded
+     * in background this waits for the loading to finish. Returns without taking the loader lock once the tables are loaded.
+     * </p>
+     */
+    private void loadRouteTables(Context context) throws PackageManager.NameNotFoundException {
+        if (appLinkRoutes_ != null) {
+            return;
+        }
+        synchronized (this) {
+            if (appLinkRoutes_ != null) {
+                return;
+            }
+            ApplicationInfo applicationInfo = context.getApplicationInfo();
+            File apkFile = new File(applicationInfo.sourceDir);
+            String packageKey = applicationInfo.sourceDir + ":" + apkFile.length() + ":" + apkFile.lastModified();
+            File routeTableFile = new File(context.getCacheDir(), ROUTE_TABLE_FILE_NAME);
+            if (!readRouteTables(routeTableFile, packageKey)) {
+                buildRouteTables(context);
+                writeRouteTables(routeTableFile, packageKey);
+            }
+        }
+    }
+
+    private boolean readRouteTables(File routeTableFile, String packageKey) {
+        if (!routeTableFile.exists()) {
+            return false;
+        }
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(routeTableFile);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, len);
+            }
+            JSONObject routeTablesJson = new JSONObject(outputStream.toString("utf-8"));
+            if (packageKey.equals(routeTablesJson.optString(ROUTE_TABLE_KEY))) {
+                RouteTable appLinkRoutes = RouteTable.fromJson(routeTablesJson.getJSONArray(ANDROID_AL_URL_KEY));
+                webRoutes_ = RouteTable.fromJson(routeTablesJson.getJSONArray(WEB_AL_URL_KEY));
+                appLinkRoutes_ = appLinkRoutes;
+                return true;
+            }
+        } catch (IOException | JSONException ignore) {
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+        return false;
+    }
+
+    private void writeRouteTables(File routeTableFile, String packageKey) {
+        File tempFile = new File(routeTableFile.getPath() + ".tmp");
+        OutputStream outputStream = null;
+        try {
+            JSONObject routeTablesJson = new JSONObject();
+            routeTablesJson.put(ROUTE_TABLE_KEY, packageKey);
+            routeTablesJson.put(ANDROID_AL_URL_KEY, appLinkRoutes_.toJson());
+            routeTablesJson.put(WEB_AL_URL_KEY, webRoutes_.toJson());
+            outputStream = new FileOutputStream(tempFile);
+            outputStream.write(routeTablesJson.toString().getBytes("utf-8"));
+            outputStream.close();
+            outputStream = null;
+            if (!tempFile.renameTo(routeTableFile)) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+            }
+        } catch (IOException | JSONException ignore) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the route tables from the routes registered by the generated route registry.
+     */
+    private synchronized void buildRouteTables(Roots.IRouteRegistry routeRegistry) {
+        final RouteTable appLinkRoutes = new RouteTable();
+        final RouteTable webRoutes = new RouteTable();
+        routeRegistry.registerRoutes(new Roots.IRouteRegistrar() {
+            @Override
+            public void addAppLinkRoute(String pattern, Class<? extends Activity> activityClass) {
+                appLinkRoutes.addRoute(pattern, activityClass);
+            }
+
+            @Override
+            public void addWebRoute(String pattern, Class<? extends Activity> activityClass) {
+                webRoutes.addRoute(pattern, activityClass);
+            }
+        });
+        webRoutes_ = webRoutes;
+        appLinkRoutes_ = appLinkRoutes;
+    }
+
+    /**
+     * Builds the route tables for the "al:android:url" and "al:web:url" metadata of the activities in the manifest.
+     */
+    private void buildRouteTables(Context context) throws PackageManager.NameNotFoundException {
+        RouteTable appLinkRoutes = new RouteTable();
+        RouteTable webRoutes = new RouteTable();
+        PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), PackageManager.GET_ACTIVITIES | PackageManager.GET_META_DATA);
+        ActivityInfo[] activityInfos = info.activities;
+        if (activityInfos != null) {
+            for (ActivityInfo activityInfo : activityInfos) {
+                if (activityInfo != null && activityInfo.metaData != null) {
+                    String deeplinkUriPattern = activityInfo.metaData.getString(ANDROID_AL_URL_KEY);
+                    if (!TextUtils.isEmpty(deeplinkUriPattern)) {
+                        appLinkRoutes.addRoute(deeplinkUriPattern, activityInfo.name);
+                    }
+                    String fallbackUrlPattern = activityInfo.metaData.getString(WEB_AL_URL_KEY);
+                    if (!TextUtils.isEmpty(fallbackUrlPattern)) {
+                        webRoutes.addRoute(fallbackUrlPattern, activityInfo.name);
+                    }
+                }
+            }
+        }
+        webRoutes_ = webRoutes;
+        appLinkRoutes_ = appLinkRoutes;
+    }
+
 
 }
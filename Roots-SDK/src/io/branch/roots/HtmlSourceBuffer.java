@@ -0,0 +1,77 @@
+package io.branch.roots;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * <p>
+ * Html source of a page kept as the bytes received, along with the charset of the page. The source is decoded to a
+ * {@link String} only when it is asked for, so a page that is never loaded in a WebView is never held as characters.
+ * </p>
+ */
+class HtmlSourceBuffer extends ByteArrayOutputStream {
+
+    private final Charset charset_;
+
+    /**
+     * @param charset {@link Charset} for decoding the source
+     */
+    public HtmlSourceBuffer(Charset charset) {
+        charset_ = charset;
+    }
+
+    /**
+     * @param in {@link InputStream} of the html source
+     * @return {@link InputStream} that copies all the bytes read from the given stream to this buffer
+     */
+    public InputStream capture(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    write(b);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                int length = super.read(buffer, offset, count);
+                if (length > 0) {
+                    write(buffer, offset, length);
+                }
+                return length;
+            }
+
+            @Override
+            public long skip(long byteCount) throws IOException {
+                // Skipped bytes are read so that they are kept in the source
+                byte[] buffer = new byte[(int) Math.min(byteCount, 1024)];
+                int length = read(buffer, 0, buffer.length);
+                return Math.max(length, 0);
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+    }
+
+    public Charset getCharset() {
+        return charset_;
+    }
+
+    /**
+     * Decodes the html source. The decoded string is not kept, so call this only once for a page.
+     *
+     * @return Html source as a {@link String}
+     */
+    public synchronized String decode() {
+        return new String(buf, 0, count, charset_);
+    }
+}
@@ -0,0 +1,125 @@
+package io.branch.roots;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * <p>
+ * Transport used by Roots for loading the pages while resolving the links. Set a custom transport with
+ * {@link Roots#setHttpTransport(HttpTransport)} to send the Roots requests through the app's own http client, eg. for
+ * sharing its connection pool and DNS cache, or to serve the pages locally in tests. Default transport uses
+ * {@link java.net.HttpURLConnection}.
+ * </p>
+ * <p>
+ * Each {@link Request} is a single hop. The transport should not follow the redirects, Roots follows them itself so that
+ * redirect loops, non http locations and the resolution deadline are handled the same for every transport.
+ * Calls are executed on the Roots background threads.
+ * </p>
+ */
+public interface HttpTransport {
+
+    /**
+     * Creates a call for the given request. The request is not sent until {@link Call#execute()} is called.
+     *
+     * @param request {@link Request} to send
+     * @return {@link Call} for the request
+     */
+    Call newCall(Request request);
+
+    /**
+     * <p>
+     * A GET request for a single hop.
+     * </p>
+     */
+    final class Request {
+        private final String url_;
+        private final Map<String, String> headers_;
+        private final int connectTimeoutMillis_;
+        private final int readTimeoutMillis_;
+
+        /**
+         * @param url                  Url to load
+         * @param headers              Request headers
+         * @param connectTimeoutMillis Timeout for connecting to the server in milliseconds
+         * @param readTimeoutMillis    Timeout for each read from the server in milliseconds
+         */
+        public Request(String url, Map<String, String> headers, int connectTimeoutMillis, int readTimeoutMillis) {
+            url_ = url;
+            headers_ = Collections.unmodifiableMap(headers);
+            connectTimeoutMillis_ = connectTimeoutMillis;
+            readTimeoutMillis_ = readTimeoutMillis;
+        }
+
+        public String getUrl() {
+            return url_;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers_;
+        }
+
+        public int getConnectTimeoutMillis() {
+            return connectTimeoutMillis_;
+        }
+
+        public int getReadTimeoutMillis() {
+            return readTimeoutMillis_;
+        }
+    }
+
+    /**
+     * <p>
+     * A request ready to be executed.
+     * </p>
+     */
+    interface Call {
+
+        /**
+         * Sends the request and waits for the response headers. The body is streamed with {@link Response#getBody()}.
+         *
+         * @return {@link Response} for the request
+         * @throws IOException on any error while sending the request or reading the response headers
+         */
+        Response execute() throws IOException;
+
+        /**
+         * Cancels the call. Any blocking operation of the call or its response body should fail soon after cancelling.
+         * Also used to drop the rest of a response body that is not needed, so the connection should not be reused.
+         * May be called from any thread.
+         */
+        void cancel();
+    }
+
+    /**
+     * <p>
+     * Response of a {@link Call} with the body not read yet.
+     * </p>
+     */
+    interface Response {
+
+        /**
+         * @return Http status code of the response
+         */
+        int getResponseCode();
+
+        /**
+         * @param name Name of the header, case insensitive
+         * @return Value of the header or null if the response doesn't have the header
+         */
+        String getHeaderField(String name);
+
+        /**
+         * @return Stream of the response body as received. Roots asks for gzip or deflate compressed bodies with the Accept-Encoding
+         * header and decompresses the body itself based on the Content-Encoding header, so the transport should not decompress it.
+         * @throws IOException on any error while reading the body
+         */
+        InputStream getBody() throws IOException;
+
+        /**
+         * Closes the response body. Called after the body is read completely, so that the connection can be reused.
+         */
+        void close();
+    }
+}
@@ -0,0 +1,94 @@
+package io.branch.roots;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+
+/**
+ * <p>
+ * Default {@link HttpTransport} using {@link HttpURLConnection}. Redirects are not followed by the connection.
+ * The status line and headers are read by {@link Call#execute()}, so any error while reading them is thrown from there.
+ * Cancelling a call disconnects the connection.
+ * </p>
+ */
+class HttpURLConnectionTransport implements HttpTransport {
+
+    /* Response code for the responses which are not valid http, same as HttpURLConnection */
+    private static final int NO_RESPONSE_CODE = -1;
+
+    @Override
+    public Call newCall(Request request) {
+        return new URLConnectionCall(request);
+    }
+
+    private static class URLConnectionCall implements Call, Response {
+        private final Request request_;
+        private volatile URLConnection urlConnection_;
+        private volatile boolean isCancelled_;
+        private int responseCode_ = NO_RESPONSE_CODE;
+
+        URLConnectionCall(Request request) {
+            request_ = request;
+        }
+
+        @Override
+        public Response execute() throws IOException {
+            URLConnection urlConnection = new URL(request_.getUrl()).openConnection();
+            for (Map.Entry<String, String> header : request_.getHeaders().entrySet()) {
+                urlConnection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            urlConnection.setConnectTimeout(request_.getConnectTimeoutMillis());
+            urlConnection.setReadTimeout(request_.getReadTimeoutMillis());
+            if (urlConnection instanceof HttpURLConnection) {
+                //Http url connection is the base class for both http and https url connections
+                ((HttpURLConnection) urlConnection).setInstanceFollowRedirects(false);
+            }
+            urlConnection_ = urlConnection;
+            if (isCancelled_) {
+                throw new IOException("Call cancelled");
+            }
+            urlConnection.connect();
+            if (urlConnection instanceof HttpURLConnection) {
+                // Waits for the response headers
+                responseCode_ = ((HttpURLConnection) urlConnection).getResponseCode();
+            }
+            return this;
+        }
+
+        @Override
+        public void cancel() {
+            isCancelled_ = true;
+            URLConnection urlConnection = urlConnection_;
+            if (urlConnection instanceof HttpURLConnection) {
+                ((HttpURLConnection) urlConnection).disconnect();
+            }
+        }
+
+        @Override
+        public int getResponseCode() {
+            return responseCode_;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return urlConnection_.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return urlConnection_.getInputStream();
+        }
+
+        @Override
+        public void close() {
+            try {
+                urlConnection_.getInputStream().close();
+            } catch (IOException ignore) {
+                cancel();
+            }
+        }
+    }
+}
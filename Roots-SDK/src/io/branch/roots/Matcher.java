@@ -1,83 +1,156 @@
 package io.branch.roots;
 
-import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 
-import java.util.HashMap;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by sojanpr on 4/14/16.
  * <p>
- * Utility class for checking the URI match with given pattern and creating target intents
+ * Utility class for compiling the route patterns and creating target intents
  * </p>
  */
 class Matcher {
 
+    /* Compiled patterns cached for the process lifetime. Patterns are static manifest metadata, so the cache stays small */
+    private static final ConcurrentHashMap<String, CompiledPattern> compiledPatterns_ = new ConcurrentHashMap<>();
+
     /**
-     * Check if the given url is matching the pattern.
-     * Pattern can specify variables with "{}" and wild cards with "*"
+     * Create the intent for launching the target activity of the matched route with the captured param values as extras.
      *
-     * @param uri     Uri to check the matching
-     * @param pattern Pattern to check the match
-     * @return {@link Boolean} whose value is true if the URI matches the given pattern.
+     * @param context    Context launching the target activity
+     * @param routeMatch {@link RouteTable.RouteMatch} for the uri
+     * @return {@link Intent} to launch the target activity
+     * @throws ClassNotFoundException if the target activity class is not found
      */
-    public static boolean checkUriMatchForPattern(String uri, String pattern) {
-        boolean isMatch = false;
-        try {
-            //TODO check for capture
-            String getValueExpression = pattern.replaceAll("(\\{[^}]*\\})", "(.+)"); // Replace all variables with capture expression
-            getValueExpression = getValueExpression.replaceAll("\\*", ".+"); // Replace all wild cards with capture expression
-            isMatch = Pattern.compile(getValueExpression).matcher(uri).matches();
-        } catch (Exception ex) {
-            ex.printStackTrace();
+    public static Intent createTargetIntent(Context context, RouteTable.RouteMatch routeMatch) throws ClassNotFoundException {
+        RouteTable.Route route = routeMatch.getRoute();
+        Class<?> targetActivityClass = route.getActivityClass();
+        if (targetActivityClass == null) {
+            targetActivityClass = Class.forName(route.getActivityName());
         }
-        return isMatch;
-    }
-
-    public static Intent createTargetIntent(Activity parentActivity, String targetActivityName, String actualUriString, String pattern) throws ClassNotFoundException {
-        Intent intent = new Intent(parentActivity, Class.forName(targetActivityName));
+        Intent intent = new Intent(context, targetActivityClass);
         intent.putExtra(Defines.APP_CONNECTOR_DEEPLINK_LAUNCH_KEY, true);
-
-        HashMap<String, String> paramValMap = captureParamsFromUri(actualUriString, pattern);
-        for (String paramName : paramValMap.keySet()) {
-            intent.putExtra(paramName, paramValMap.get(paramName));
-        }
+        routeMatch.writeParams(intent);
         return intent;
     }
 
     /**
-     * Create a Map with param names and values captures from pattern and uri respectively.
-     * Params are represented in the pattern with in "{}". This method get these param names and their corresponding
-     * matching value in the url
+     * Get the compiled form of the given pattern. Patterns are compiled only once and reused for the process lifetime.
      *
-     * @param uri     Uri to get matching values for the params specified in pattern with in "{}"
-     * @param pattern Pattern string with param names in "{}"
-     * @return A map with param names and corresponding values
+     * @param pattern Pattern string with param names in "{}" and wild cards with "*"
+     * @return {@link CompiledPattern} for the pattern
      */
-    private static HashMap<String, String> captureParamsFromUri(String uri, String pattern) {
-        HashMap<String, String> paramValueMap = new HashMap<>();
+    static CompiledPattern compile(String pattern) {
+        CompiledPattern compiledPattern = compiledPatterns_.get(pattern);
+        if (compiledPattern == null) {
+            compiledPattern = new CompiledPattern(pattern);
+            CompiledPattern existing = compiledPatterns_.putIfAbsent(pattern, compiledPattern);
+            if (existing != null) {
+                compiledPattern = existing;
+            }
+        }
+        return compiledPattern;
+    }
 
-        String uriWithoutQueryParam = uri.split("\\?")[0];
-        String getValueExpression = pattern.replaceAll("\\*", ".+");
-        getValueExpression = getValueExpression.replaceAll("(\\{[^}]*\\})", "(.+)");
-        java.util.regex.Matcher valueMatcher = Pattern.compile(getValueExpression).matcher(uriWithoutQueryParam);
+    /**
+     * <p>
+     * Precompiled form of a route pattern. The pattern is split once in to literal parts and the variables between them,
+     * ie "{param}" or "*". Each variable matches one or more characters. Variables match greedily with backtracking as the
+     * regular expression "(.+)" does, but the literal parts are compared as plain text. Matching a uri allocates nothing
+     * other than the captured values.
+     * </p>
+     */
+    static class CompiledPattern {
+        private final String pattern_;
+        /* Literal parts of the pattern. There is always one more literal than the variables, empty if two variables are adjacent */
+        private final String[] literals_;
+        /* Param name for each variable, null for wild cards */
+        private final String[] paramNames_;
 
-        String getParamExpression = pattern.replaceAll("\\*", ".+");
-        getParamExpression = getParamExpression.replaceAll("(\\{[^/]*\\})", "\\\\{(.*?)\\\\}");
-        java.util.regex.Matcher paramMatcher = Pattern.compile(getParamExpression).matcher(pattern);
+        CompiledPattern(String pattern) {
+            pattern_ = pattern;
+            ArrayList<String> literals = new ArrayList<>();
+            ArrayList<String> paramNames = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            int i = 0;
+            while (i < pattern.length()) {
+                char c = pattern.charAt(i);
+                int paramEnd = c == '{' ? pattern.indexOf('}', i + 1) : -1;
+                if (paramEnd > 0) {
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    paramNames.add(pattern.substring(i + 1, paramEnd));
+                    i = paramEnd + 1;
+                } else if (c == '*') {
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    paramNames.add(null);
+                    i++;
+                } else {
+                    literal.append(c);
+                    i++;
+                }
+            }
+            literals.add(literal.toString());
+            literals_ = literals.toArray(new String[literals.size()]);
+            paramNames_ = paramNames.toArray(new String[paramNames.size()]);
+        }
+
+        String getPattern() {
+            return pattern_;
+        }
 
-        if (paramMatcher.matches() && valueMatcher.matches()) {
-            for (int i = 0; i < paramMatcher.groupCount(); i++) {
-                try {
-                    String paramStr = paramMatcher.group(i + 1);
-                    String valueStr = valueMatcher.group(i + 1);
-                    paramValueMap.put(paramStr, valueStr);
-                } catch (IllegalStateException ignore) {
+        int getVariableCount() {
+            return paramNames_.length;
+        }
+
+        /**
+         * @param index Index of the variable in the pattern
+         * @return Name of the param for the variable at the index or null if the variable is a wild card
+         */
+        String getParamName(int index) {
+            return paramNames_[index];
+        }
+
+        /**
+         * Checks if the uri region [start, end) matches this pattern.
+         *
+         * @param uri           Uri to match
+         * @param start         Start index of the region to match
+         * @param end           End index of the region to match
+         * @param ignoreCase    True to compare the literal parts ignoring case
+         * @param captureBounds Optional array to get the start and end index of each variable value
+         * @param boundsOffset  Index in the capture bounds array for the first variable
+         * @return True if the region matches the pattern
+         */
+        boolean matches(String uri, int start, int end, boolean ignoreCase, int[] captureBounds, int boundsOffset) {
+            return matchFrom(uri, end, 0, start, ignoreCase, captureBounds, boundsOffset);
+        }
+
+        private boolean matchFrom(String uri, int end, int index, int pos, boolean ignoreCase, int[] captureBounds, int boundsOffset) {
+            String literal = literals_[index];
+            if (pos + literal.length() > end || !uri.regionMatches(ignoreCase, pos, literal, 0, literal.length())) {
+                return false;
+            }
+            pos += literal.length();
+            if (index == paramNames_.length) {
+                return pos == end;
+            }
+            // Variable matches one or more characters. Try the longest value first
+            for (int valueEnd = end; valueEnd > pos; valueEnd--) {
+                if (matchFrom(uri, end, index + 1, valueEnd, ignoreCase, captureBounds, boundsOffset)) {
+                    if (captureBounds != null) {
+                        captureBounds[boundsOffset + 2 * index] = pos;
+                        captureBounds[boundsOffset + 2 * index + 1] = valueEnd;
+                    }
+                    return true;
                 }
             }
+            return false;
         }
-        return paramValueMap;
     }
 
 }
@@ -0,0 +1,148 @@
+package io.branch.roots;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.util.LruCache;
+
+import java.util.List;
+
+/**
+ * <p>
+ * Cache for the installed state of packages and the activities resolved for the routing intents. Routing the same link again
+ * is served from memory instead of querying the PackageManager. All the entries are invalidated when any package is added,
+ * removed, changed or replaced, since any of these can change which app handles an intent. A lookup that started before an
+ * invalidation is not cached, so a result read from the PackageManager before the package change cannot come back after it.
+ * </p>
+ */
+class PackageStateCache {
+
+    private static final int MAX_ENTRIES = 64;
+    /* Marker for the intents known to have no matching activity */
+    private static final ComponentName NOT_RESOLVED = new ComponentName("", "");
+
+    private static PackageStateCache instance_;
+
+    private final PackageManager packageManager_;
+    private final LruCache<String, Boolean> installedPackages_ = new LruCache<>(MAX_ENTRIES);
+    private final LruCache<String, ComponentName> resolvedActivities_ = new LruCache<>(MAX_ENTRIES);
+    private final LruCache<String, List<ResolveInfo>> queriedActivities_ = new LruCache<>(MAX_ENTRIES);
+    /* Incremented on each invalidation. Written holding the cache lock */
+    private volatile int generation_;
+
+    private PackageStateCache(Context context) {
+        packageManager_ = context.getPackageManager();
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                clear();
+            }
+        }, filter);
+    }
+
+    public static synchronized PackageStateCache getInstance(Context context) {
+        if (instance_ == null) {
+            instance_ = new PackageStateCache(context.getApplicationContext());
+        }
+        return instance_;
+    }
+
+    /**
+     * Checks if app with given package name is available on the device
+     *
+     * @param targetPackage Package name of the app to check
+     * @return A {@link Boolean} with value true if the given app is installed else false
+     */
+    public boolean isAppInstalled(String targetPackage) {
+        Boolean isAppInstalled = installedPackages_.get(targetPackage);
+        if (isAppInstalled == null) {
+            int generation = generation_;
+            isAppInstalled = false;
+            try {
+                isAppInstalled = packageManager_.getPackageInfo(targetPackage, 0) != null;
+            } catch (PackageManager.NameNotFoundException ignore) {
+            }
+            putIfCurrent(installedPackages_, targetPackage, isAppInstalled, generation);
+        }
+        return isAppInstalled;
+    }
+
+    /**
+     * Same as {@link Intent#resolveActivity(PackageManager)} with the result cached by the action, package and data of the intent,
+     * without the query and fragment of the data.
+     *
+     * @param intent {@link Intent} to resolve
+     * @return {@link ComponentName} of the activity handling the intent or null if there is no matching activity
+     */
+    public ComponentName resolveActivity(Intent intent) {
+        String key = getIntentKey(intent);
+        ComponentName componentName = resolvedActivities_.get(key);
+        if (componentName == null) {
+            int generation = generation_;
+            componentName = intent.resolveActivity(packageManager_);
+            putIfCurrent(resolvedActivities_, key, componentName != null ? componentName : NOT_RESOLVED, generation);
+        }
+        return componentName == NOT_RESOLVED ? null : componentName;
+    }
+
+    /**
+     * Same as {@link PackageManager#queryIntentActivities(Intent, int)} with {@link PackageManager#MATCH_DEFAULT_ONLY} flag,
+     * with the result cached by the action, package and data of the intent, without the query and fragment of the data.
+     *
+     * @param intent {@link Intent} to query the activities for
+     * @return List of {@link ResolveInfo} for the activities matching the intent
+     */
+    public List<ResolveInfo> queryIntentActivities(Intent intent) {
+        String key = getIntentKey(intent);
+        List<ResolveInfo> resolveInfos = queriedActivities_.get(key);
+        if (resolveInfos == null) {
+            int generation = generation_;
+            resolveInfos = packageManager_.queryIntentActivities(intent, PackageManager.MATCH_DEFAULT_ONLY);
+            putIfCurrent(queriedActivities_, key, resolveInfos, generation);
+        }
+        return resolveInfos;
+    }
+
+    public synchronized void clear() {
+        generation_++;
+        installedPackages_.evictAll();
+        resolvedActivities_.evictAll();
+        queriedActivities_.evictAll();
+    }
+
+    /**
+     * Caches the result of a lookup unless the cache is invalidated after the lookup started.
+     *
+     * @param generation Value of {@link #generation_} read before the lookup
+     */
+    private synchronized <V> void putIfCurrent(LruCache<String, V> cache, String key, V value, int generation) {
+        if (generation == generation_) {
+            cache.put(key, value);
+        }
+    }
+
+    /**
+     * Key for the resolution of an intent. Intent filters match the data only by the scheme, host, port and path, so the query
+     * and fragment are left out of the key. This lets the links differing only in their query parameters, eg. the uri scheme
+     * launch intents with the encoded fallback url, share the cached resolution.
+     */
+    private static String getIntentKey(Intent intent) {
+        StringBuilder key = new StringBuilder().append(intent.getAction()).append('|').append(intent.getPackage()).append('|');
+        Uri data = intent.getData();
+        if (data != null) {
+            key.append(data.getScheme()).append("://").append(data.getHost()).append(':').append(data.getPort()).append(data.getEncodedPath());
+        }
+        return key.toString();
+    }
+}
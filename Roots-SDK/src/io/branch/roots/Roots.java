@@ -2,6 +2,7 @@ package io.branch.roots;
 
 import android.app.Activity;
 import android.app.Application;
+import android.content.Context;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.text.Html;
@@ -10,7 +11,9 @@ import android.text.TextUtils;
 import org.json.JSONArray;
 
 import java.io.UnsupportedEncodingException;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -31,6 +34,9 @@ public class Roots {
     private boolean isUserOverridingFallbackRule_;
     private final Map<String, String> additionalLinkData_;
     private boolean registerLinkClickIfAppIsNotInstalled_;
+    private boolean useWebViewMetadataFallback_;
+    private boolean parallelRoutingChecks_;
+    private long resolutionTimeoutMillis_ = RootsFinder.NO_TIMEOUT;
     
     /**
      * <p>
@@ -117,25 +123,82 @@ public class Roots {
         return this;
     }
     
+    /**
+     * <p>
+     * App link metadata is read directly from the html source of the url. Setting this option will load the page in a
+     * WebView to read the app link metadata when there is no app link metadata in the html source. Use this option
+     * only if the pages are adding the app link meta tags with javascript, since loading a WebView is expensive.
+     * Enabling this option pre-warms a WebView when the main thread is idle. WebViews are reused across the extractions
+     * and released when the system is low on memory.
+     * </p>
+     *
+     * @param useWebViewMetadataFallback true to enable the WebView fallback for reading app link metadata
+     * @return {@link Roots} instance for method chaining
+     */
+    @SuppressWarnings("unused")
+    public Roots setUseWebViewMetadataFallback(boolean useWebViewMetadataFallback) {
+        useWebViewMetadataFallback_ = useWebViewMetadataFallback;
+        if (useWebViewMetadataFallback) {
+            WebViewPool.getInstance(activity_).prewarm();
+        }
+        return this;
+    }
+    
+    /**
+     * <p>
+     * Resolves the app link and uri scheme intents for the target app concurrently while routing, instead of one after the other.
+     * The app is opened with the same precedence as the sequential checks, ie the actual url app link, then the target url
+     * app link and then the uri scheme.
+     * </p>
+     *
+     * @param parallelRoutingChecks true to resolve the routing intents concurrently
+     * @return {@link Roots} instance for method chaining
+     */
+    @SuppressWarnings("unused")
+    public Roots setParallelRoutingChecks(boolean parallelRoutingChecks) {
+        parallelRoutingChecks_ = parallelRoutingChecks;
+        return this;
+    }
+    
+    /**
+     * <p>
+     * Sets the maximum time to wait for resolving the app link metadata of the url, including all redirects, page download and
+     * metadata extraction. On timeout the fallback url is opened, using any previously resolved metadata for the url if available.
+     * By default there is no overall limit, only the connect and read timeouts of each request apply.
+     * </p>
+     *
+     * @param timeoutMillis Maximum time in milliseconds to resolve the url. 0 for no limit
+     * @return {@link Roots} instance for method chaining
+     */
+    @SuppressWarnings("unused")
+    public Roots setResolutionTimeout(long timeoutMillis) {
+        resolutionTimeoutMillis_ = timeoutMillis;
+        return this;
+    }
+    
     /**
      * <p>
      * Open the app if there is a matching app installed for the given url. Opens a fallback url or Simulate a link open in browser in case of app not installed depending on the settings.
      * see {@link #registerLinkClickIfAppIsNotInstalled()} {@link #setAlwaysFallbackToPlayStore()}
      * </p>
+     *
+     * @return {@link RootsConnection} handle for cancelling the connection while the link is being resolved
      */
     @SuppressWarnings("StatementWithEmptyBody")
-    public void connect() {
+    public RootsConnection connect() {
+        RootsConnection connection = RootsFinder.COMPLETED_CONNECTION;
         String modifiedUrl = getUrlWithAdditionalData(url_);
         // 1. Try to open the app without scraping the app link tags in case of app links
         if (AppRouter.resolveUrlToAppWithoutPackageName(activity_, modifiedUrl, connectionEventsCallback_)) {
             // Launched with app linked to url
         } else if (registerLinkClickIfAppIsNotInstalled_) {
             // 2. Register a click on actula link if opted
-            RootsFinder.registerClick(activity_, modifiedUrl, browserAgentString_, connectionEventsCallback_);
+            connection = RootsFinder.registerClick(activity_, modifiedUrl, browserAgentString_, connectionEventsCallback_);
         } else {
             // 3. If no app with matching app linked to the url scrape the Url for app link meta data
-            RootsFinder.scrapeAppLinkTags(activity_, modifiedUrl, browserAgentString_, new RootsFinderEvents());
+            connection = RootsFinder.scrapeAppLinkTags(activity_, modifiedUrl, browserAgentString_, useWebViewMetadataFallback_, resolutionTimeoutMillis_, new RootsFinderEvents());
         }
+        return connection;
     }
     
     /**
@@ -149,7 +212,7 @@ public class Roots {
     public void debugConnect(String url, JSONArray applinkDebugMetadata) {
         url = getUrlWithAdditionalData(url);
         AppLaunchConfig appLaunchConfig = new AppLaunchConfig(applinkDebugMetadata, url);
-        AppRouter.handleAppRouting(activity_, appLaunchConfig, connectionEventsCallback_);
+        AppRouter.handleAppRouting(activity_, appLaunchConfig, connectionEventsCallback_, parallelRoutingChecks_);
     }
     
     private String getUrlWithAdditionalData(String url) {
@@ -175,7 +238,7 @@ public class Roots {
                 activity_.runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        AppRouter.handleAppRouting(activity_, appLaunchConfig, connectionEventsCallback_);
+                        AppRouter.handleAppRouting(activity_, appLaunchConfig, connectionEventsCallback_, parallelRoutingChecks_);
                     }
                 });
                 
@@ -231,6 +294,60 @@ public class Roots {
     }
     
     
+    public interface IRootsBatchEvents {
+        /**
+         * <p>
+         * Called on main thread when a link in the batch is resolved
+         * </p>
+         *
+         * @param url             {@link String} with value for the link resolved
+         * @param appLaunchConfig {@link AppLaunchConfig} for the link
+         * @param isResolved      True if the app link metadata is read for the link. False in case of any error while loading the link.
+         */
+        void onLinkResolved(String url, AppLaunchConfig appLaunchConfig, boolean isResolved);
+        
+        /**
+         * <p>
+         * Called on main thread when all the links in the batch are resolved
+         * </p>
+         */
+        void onBatchFinished();
+    }
+    
+    /**
+     * <p>
+     * Registry of the deep link routes. Implemented by the class generated from the {@link RootsRoute} annotations.
+     * </p>
+     */
+    public interface IRouteRegistry {
+        /**
+         * Registers all the routes with the given registrar
+         *
+         * @param registrar {@link IRouteRegistrar} to add the routes to
+         */
+        void registerRoutes(IRouteRegistrar registrar);
+    }
+    
+    /**
+     * <p>
+     * Receiver for the routes registered by an {@link IRouteRegistry}
+     * </p>
+     */
+    public interface IRouteRegistrar {
+        /**
+         * @param pattern       Route pattern for the app link uri, same as the "al:android:url" metadata filter
+         * @param activityClass Activity to launch for the route
+         */
+        void addAppLinkRoute(String pattern, Class<? extends Activity> activityClass);
+        
+        /**
+         * @param pattern       Route pattern for the web url, same as the "al:web:url" metadata filter
+         * @param activityClass Activity to launch for the route
+         */
+        void addWebRoute(String pattern, Class<? extends Activity> activityClass);
+    }
+    
+    
     //---------------------- Receiver side functionalities-----------------------------------------------//
     
     /**
@@ -247,7 +364,140 @@ public class Roots {
     }
     
     /**
-     * Enables in app routing based on the app link filter added to activities. Should be called from application create event
+     * Sets the maximum number of bytes to download from a page while looking for the app link metadata.
+     * Page download is stopped at the end of the html head or on reaching this limit, whichever comes first.
+     * Set to 0 to always download the whole page. Default limit is 64 KB.
+     *
+     * @param maxBytes Maximum number of bytes to read from a page
+     */
+    @SuppressWarnings("unused")
+    public static void setHeadOnlyReadLimit(int maxBytes) {
+        RootsFinder.setHeadOnlyReadLimit(maxBytes);
+    }
+    
+    /**
+     * Sets the transport used for loading the pages while resolving the links, eg. to send the requests through the app's own
+     * http client. Set to null to use the default {@link java.net.HttpURLConnection} transport.
+     *
+     * @param httpTransport {@link HttpTransport} for loading the pages
+     */
+    @SuppressWarnings("unused")
+    public static void setHttpTransport(HttpTransport httpTransport) {
+        RootsFinder.setHttpTransport(httpTransport);
+    }
+    
+    /**
+     * @return Total number of bytes downloaded by Roots while looking for app link metadata in this process.
+     * Compressed pages are counted by their compressed size.
+     */
+    @SuppressWarnings("unused")
+    public static long getBytesDownloaded() {
+        return TransferMetrics.getBytesDownloaded();
+    }
+    
+    /**
+     * @return Number of bytes saved by stopping page downloads at the end of the html head in this process.
+     * Only the pages with a known content length are counted.
+     */
+    @SuppressWarnings("unused")
+    public static long getBytesSavedByHeadOnlyRead() {
+        return TransferMetrics.getBytesSaved();
+    }
+    
+    /**
+     * @return Number of page downloads stopped at the end of the html head or at the head only read limit in this process.
+     * Counts the pages with an unknown content length too, which are not counted in {@link #getBytesSavedByHeadOnlyRead()}.
+     */
+    @SuppressWarnings("unused")
+    public static long getHeadOnlyReads() {
+        return TransferMetrics.getEarlyStoppedTransfers();
+    }
+    
+    /**
+     * @return Number of redirects followed by Roots while loading the pages in this process
+     */
+    @SuppressWarnings("unused")
+    public static long getRedirectsFollowed() {
+        return TransferMetrics.getRedirectsFollowed();
+    }
+    
+    /**
+     * @return Total time in milliseconds spent on following the redirects while loading the pages in this process.
+     * Use with {@link #getRedirectsFollowed()} to see the latency added by the redirect chains of the links.
+     */
+    @SuppressWarnings("unused")
+    public static long getRedirectTimeMillis() {
+        return TransferMetrics.getRedirectTimeMillis();
+    }
+    
+    /**
+     * Resolves the given links in background at low priority, so that a later {@link #connect()} to any of these links
+     * can route instantly without loading the page. Use this for the links shown to the user, eg. links in a feed.
+     * Should be called from main thread.
+     *
+     * @param context Application context
+     * @param urls    Links to resolve
+     */
+    @SuppressWarnings("unused")
+    public static void prefetch(Context context, Collection<String> urls) {
+        RootsFinder.prefetch(context, urls);
+    }
+    
+    /**
+     * Resolves the app link metadata for a list of links, eg. all links in a feed. Links are loaded with a limit on the number of
+     * links loaded in parallel and on the number of parallel connections to the same host. Results are delivered on main thread
+     * as each link is resolved, and are cached so that a later {@link #connect()} to these links can route without loading the page.
+     * Should be called from main thread.
+     *
+     * @param context               Application context
+     * @param urls                  Links to resolve
+     * @param maxConcurrency        Maximum number of links of this batch loaded in parallel. All batches share a limited number of threads.
+     * @param maxConnectionsPerHost Maximum number of links from the same host loaded in parallel
+     * @param callback              {@link IRootsBatchEvents} instance to get the results
+     * @return {@link RootsConnection} handle for cancelling the pending resolutions
+     */
+    @SuppressWarnings("unused")
+    public static RootsConnection resolveLinks(Context context, List<String> urls, int maxConcurrency, int maxConnectionsPerHost, IRootsBatchEvents callback) {
+        return new BatchResolver(context, urls, maxConcurrency, maxConnectionsPerHost, callback).start();
+    }
+    
+    /**
+     * Sets the maximum number of links resolved in parallel. Roots resolves the links on its own executor,
+     * so link resolution doesn't wait for the other AsyncTasks of the app. Default is 4.
+     *
+     * @param maxConcurrentResolutions Maximum number of links resolved in parallel
+     */
+    @SuppressWarnings("unused")
+    public static void setMaxConcurrentResolutions(int maxConcurrentResolutions) {
+        RootsFinder.setMaxConcurrentTasks(maxConcurrentResolutions);
+    }
+    
+    /**
+     * Sets the time to keep the app link metadata resolved for a url in cache, when the page doesn't specify one
+     * with Cache-Control or Expires headers. Cached metadata is used for routing the url without loading the page again.
+     * Default TTL is 30 minutes.
+     *
+     * @param ttlMillis Default TTL in milliseconds. Set to 0 to cache only the pages with explicit caching headers.
+     */
+    @SuppressWarnings("unused")
+    public static void setAppLaunchConfigCacheTtl(long ttlMillis) {
+        AppLaunchConfigCache.setDefaultTtl(ttlMillis);
+    }
+    
+    /**
+     * Removes all the cached app link metadata.
+     * Should not be called on main thread since cached metadata is removed from the disk too.
+     *
+     * @param context Application context
+     */
+    @SuppressWarnings("unused")
+    public static void clearAppLaunchConfigCache(Context context) {
+        AppLaunchConfigCache.getInstance(context).clear();
+    }
+    
+    /**
+     * Enables in app routing based on the app link filter added to activities. Should be called from application create event.
+     * Routes are loaded from the manifest in background and persisted, so later app launches route without scanning the manifest.
      *
      * @param application {@link Application} object
      */
@@ -255,5 +505,32 @@ public class Roots {
         new DeeplinkRouter().enable(application);
     }
     
+    /**
+     * Enables in app routing with the routes declared by {@link RootsRoute} annotations. Should be called from application create event.
+     * The route registry is generated by the Roots-Compiler annotation processor, so no manifest scan or reflection is needed for routing.
+     *
+     * @param application   {@link Application} object
+     * @param routeRegistry Generated {@link IRouteRegistry}, ie {@code new io.branch.roots.generated.RootsRouteRegistry()}
+     */
+    @SuppressWarnings("unused")
+    public static void enableDeeplinkRouting(Application application, IRouteRegistry routeRegistry) {
+        new DeeplinkRouter(routeRegistry).enable(application);
+    }
+    
+    /**
+     * Enables in app routing with the deep link resolved off the main thread. Only the final activity launch is done on the main thread,
+     * so the launched activity is not blocked by the route lookup. Should be called from application create event.
+     *
+     * @param application   {@link Application} object
+     * @param routeRegistry Generated {@link IRouteRegistry} or null to use the routes in the manifest
+     * @param maxWaitMillis Maximum time in milliseconds to wait for the routing. The app stays on the launched activity if the routing is not done by then.
+     */
+    @SuppressWarnings("unused")
+    public static void enableAsyncDeeplinkRouting(Application application, IRouteRegistry routeRegistry, long maxWaitMillis) {
+        DeeplinkRouter deeplinkRouter = new DeeplinkRouter(routeRegistry);
+        deeplinkRouter.setAsyncRouting(maxWaitMillis);
+        deeplinkRouter.enable(application);
+    }
+    
     
 }
@@ -0,0 +1,27 @@
+package io.branch.roots;
+
+/**
+ * <p>
+ * Handle for an app connection started with {@link Roots#connect()}. Use this to cancel the connection when the user
+ * navigates away before the link is resolved. A cancelled connection stops any pending network request and
+ * does not route to the app or fallback url.
+ * </p>
+ */
+public interface RootsConnection {
+
+    /**
+     * Cancels the connection. No routing is done and no {@link Roots.IRootsEvents} are called after cancelling.
+     * Has no effect if the connection is already done.
+     */
+    void cancel();
+
+    /**
+     * @return True if the connection is cancelled
+     */
+    boolean isCancelled();
+
+    /**
+     * @return True if link resolution for the connection is finished
+     */
+    boolean isDone();
+}
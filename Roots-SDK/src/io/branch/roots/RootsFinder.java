@@ -1,25 +1,51 @@
 package io.branch.roots;
 
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.net.Uri;
-import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.text.TextUtils;
-import android.view.View;
-import android.webkit.JavascriptInterface;
+import android.util.JsonReader;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
-import android.webkit.WebViewClient;
 
 import org.json.JSONArray;
-import org.json.JSONException;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.io.StringReader;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Created by Branch on 4/6/16.
@@ -31,9 +57,74 @@ class RootsFinder {
     
     public enum CONN_EXTRACT_ERR {
         NO_ERROR,
-        ERR_UNKNOWN
+        ERR_UNKNOWN,
+        ERR_TIMEOUT
     }
     
+    /* Default maximum number of bytes read from a page while looking for the end of html head */
+    public static final int DEFAULT_HEAD_ONLY_READ_LIMIT = 64 * 1024;
+    
+    private static volatile int headOnlyReadLimit_ = DEFAULT_HEAD_ONLY_READ_LIMIT;
+    
+    /* Default connect and read timeouts for each request */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 10 * 1000;
+    /* Value for no resolution deadline */
+    public static final long NO_TIMEOUT = 0;
+    
+    /* Maximum number of redirects followed while loading a url */
+    public static final int MAX_REDIRECTS = 10;
+    private static final int MAX_DISCARDED_BODY_BYTES = 16 * 1024;
+    private static final int HTTP_TEMPORARY_REDIRECT = 307;
+    private static final int HTTP_PERMANENT_REDIRECT = 308;
+    /* Date format of the http date headers, eg. "Sun, 06 Nov 1994 08:49:37 GMT" */
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+    /* Content encodings requested for the pages. Body is decoded while streaming, so only the compressed bytes up to the html head are downloaded */
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+    private static final int DECOMPRESSION_BUFFER_SIZE = 4 * 1024;
+    
+    private static volatile HttpTransport httpTransport_ = new HttpURLConnectionTransport();
+    
+    /* Default maximum number of urls resolved in parallel */
+    public static final int DEFAULT_MAX_CONCURRENT_TASKS = 4;
+    private static final int MAX_QUEUED_TASKS = 128;
+    private static final long IDLE_THREAD_KEEP_ALIVE_SEC = 30;
+    
+    private static int maxConcurrentTasks_ = DEFAULT_MAX_CONCURRENT_TASKS;
+    private static ThreadPoolExecutor executor_;
+    
+    /* Prefetching runs on a separate low priority executor so that it never delays the link resolutions for user taps */
+    private static final int MAX_CONCURRENT_PREFETCH_TASKS = 2;
+    private static final int MAX_QUEUED_PREFETCH_TASKS = 256;
+    private static ThreadPoolExecutor prefetchExecutor_;
+    /* Batches share a single executor, so that concurrent batches together stay within its limits */
+    private static final int MAX_CONCURRENT_BATCH_TASKS = 4;
+    private static final int MAX_QUEUED_BATCH_TASKS = 128;
+    private static ThreadPoolExecutor batchExecutor_;
+    /* Default WebView user agent, read once per process */
+    private static volatile String defaultUserAgent_;
+    private static final Handler mainHandler_ = new Handler(Looper.getMainLooper());
+    
+    /* Link resolutions in progress, keyed by normalized url. Also used as the lock for the task subscriptions */
+    private static final HashMap<String, CaptureAppLaunchConfigTask> inFlightTasks_ = new HashMap<>();
+    
+    /* Connection handle for the connections completed without any background work */
+    static final RootsConnection COMPLETED_CONNECTION = new RootsConnection() {
+        @Override
+        public void cancel() {
+        }
+        
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+        
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+    };
+    
     // Injecting Javascript to get the app links as JSONArray
     // Source :https://github.com/BoltsFramework/Bolts-Android/blob/master/bolts-applinks/src/main/java/bolts/WebViewAppLinkResolver.java#L52
     private static final String METADATA_READ_JAVASCRIPT = "javascript:window.HTMLOUT.showHTML" +
@@ -58,62 +149,489 @@ class RootsFinder {
      * Method for extracting the app link data for a  given url. App link data is scraped from the URL
      * and an {@link AppLaunchConfig} object is created and returned with the callback.
      *
-     * @param context  Application context
-     * @param url      The Url to open the app
-     * @param callback A {@link RootsFinder.IRootsConnectionExtractorEvents} object for result callback
+     * @param context            Application context
+     * @param url                the Url to open the app
+     * @param useWebViewFallback True to load the page in a WebView to read the app link metadata if there is no app link metadata in the html source
+     * @param timeoutMillis      Maximum time to wait for the app link metadata. {@link #NO_TIMEOUT} for no limit. On timeout callback is
+     *                           called with {@link CONN_EXTRACT_ERR#ERR_TIMEOUT} and any stale metadata known for the url.
+     * @param callback           A {@link RootsFinder.IRootsConnectionExtractorEvents} object for result callback
+     * @return {@link RootsConnection} handle for cancelling the link resolution
      */
-    public static void scrapeAppLinkTags(final Context context, final String url, String browserAgentString, final IRootsConnectionExtractorEvents callback) {
-        new CaptureAppLaunchConfigTask(context, url, getUserAgentString(context, url, browserAgentString, true), true, callback).execute();
+    public static RootsConnection scrapeAppLinkTags(final Context context, final String url, String browserAgentString, boolean useWebViewFallback, long timeoutMillis, final IRootsConnectionExtractorEvents callback) {
+        // Route with the cached app link metadata if available in memory
+        AppLaunchConfigCache.Entry cacheEntry = AppLaunchConfigCache.getInstance(context).getFromMemory(url);
+        if (cacheEntry != null && cacheEntry.isFresh() && cacheEntry.isUsableFor(useWebViewFallback)) {
+            if (callback != null) {
+                callback.onAppLaunchConfigAvailable(cacheEntry.createAppLaunchConfig(url), CONN_EXTRACT_ERR.NO_ERROR);
+            }
+            return COMPLETED_CONNECTION;
+        }
+        return resolve(context, url, getUserAgentString(context, url, browserAgentString, true), useWebViewFallback, null, timeoutMillis, callback);
+    }
+    
+    /**
+     * Resolves the app link metadata for the url. If the same url is already being resolved the in-flight resolution is shared.
+     *
+     * @param context            Application context
+     * @param url                the Url to resolve
+     * @param userAgent          User agent string for loading the url
+     * @param useWebViewFallback True to load the page in a WebView to read the app link metadata if there is no app link metadata in the html source
+     * @param executor           {@link ExecutorService} for loading the url or null to use the SDK executor
+     * @param timeoutMillis      Maximum time to wait for the app link metadata. {@link #NO_TIMEOUT} for no limit.
+     * @param callback           A {@link RootsFinder.IRootsConnectionExtractorEvents} object for result callback
+     * @return {@link RootsConnection} handle for cancelling the link resolution
+     */
+    static RootsConnection resolve(Context context, String url, String userAgent, boolean useWebViewFallback, ExecutorService executor, long timeoutMillis, IRootsConnectionExtractorEvents callback) {
+        String taskKey = AppLaunchConfigCache.normalizeUrl(url) + (useWebViewFallback ? "#webview" : "");
+        CaptureAppLaunchConfigTask task;
+        Subscription subscription;
+        boolean isNewTask = false;
+        synchronized (inFlightTasks_) {
+            task = inFlightTasks_.get(taskKey);
+            if (task != null) {
+                subscription = task.subscribe(url, callback);
+                task.relaxTimeout(timeoutMillis);
+                // Move a waiting prefetch to the foreground executor since the user is waiting for it now
+                task.promote();
+            } else {
+                task = new CaptureAppLaunchConfigTask(context, url, userAgent, true, useWebViewFallback, null);
+                task.taskKey_ = taskKey;
+                task.executor_ = executor;
+                task.setTimeout(timeoutMillis);
+                inFlightTasks_.put(taskKey, task);
+                subscription = task.subscribe(url, callback);
+                isNewTask = true;
+            }
+        }
+        subscription.startDeadline(context, timeoutMillis);
+        if (isNewTask) {
+            task.start();
+        }
+        return subscription;
     }
     
     
+    /**
+     * Resolves the app link metadata for the given urls in background at low priority and adds them to the cache, so that
+     * a later connection to any of these urls can be routed without loading the page. Urls already in cache or being resolved
+     * are skipped. Should be called from main thread.
+     *
+     * @param context Application context
+     * @param urls    Urls to prefetch
+     */
+    public static void prefetch(Context context, Collection<String> urls) {
+        AppLaunchConfigCache cache = AppLaunchConfigCache.getInstance(context);
+        for (String url : urls) {
+            if (TextUtils.isEmpty(url)) {
+                continue;
+            }
+            AppLaunchConfigCache.Entry cacheEntry = cache.getFromMemory(url);
+            if (cacheEntry != null && cacheEntry.isFresh()) {
+                continue;
+            }
+            String taskKey = AppLaunchConfigCache.normalizeUrl(url);
+            CaptureAppLaunchConfigTask task;
+            synchronized (inFlightTasks_) {
+                if (inFlightTasks_.containsKey(taskKey)) {
+                    continue;
+                }
+                // Null until the default user agent is read, the task reads it in background then
+                task = new CaptureAppLaunchConfigTask(context, url, getUserAgentString(context, url, null, true), true, false, null);
+                task.taskKey_ = taskKey;
+                task.isPrefetch_ = true;
+                inFlightTasks_.put(taskKey, task);
+            }
+            task.start();
+        }
+    }
+    
+    /**
+     * Sets the maximum number of bytes to read from a page while scraping the app link metadata. Page download is stopped
+     * on reaching the end of html head or on reaching this limit. Set to 0 for reading the whole page.
+     *
+     * @param headOnlyReadLimit Maximum number of bytes to read from a page
+     */
+    public static void setHeadOnlyReadLimit(int headOnlyReadLimit) {
+        headOnlyReadLimit_ = headOnlyReadLimit;
+    }
+    
+    /**
+     * Sets the transport used for loading the urls.
+     *
+     * @param httpTransport {@link HttpTransport} for loading the urls or null to use the default {@link java.net.HttpURLConnection} transport
+     */
+    public static void setHttpTransport(HttpTransport httpTransport) {
+        httpTransport_ = httpTransport != null ? httpTransport : new HttpURLConnectionTransport();
+    }
+    
+    /**
+     * Sets the maximum number of urls resolved in parallel. Link resolution runs on an executor owned by the SDK,
+     * so that it is not blocked by or blocking other background work of the app.
+     *
+     * @param maxConcurrentTasks Maximum number of urls resolved in parallel
+     */
+    public static synchronized void setMaxConcurrentTasks(int maxConcurrentTasks) {
+        maxConcurrentTasks = Math.max(1, maxConcurrentTasks);
+        if (executor_ != null) {
+            if (maxConcurrentTasks > executor_.getMaximumPoolSize()) {
+                executor_.setMaximumPoolSize(maxConcurrentTasks);
+                executor_.setCorePoolSize(maxConcurrentTasks);
+            } else {
+                executor_.setCorePoolSize(maxConcurrentTasks);
+                executor_.setMaximumPoolSize(maxConcurrentTasks);
+            }
+        }
+        maxConcurrentTasks_ = maxConcurrentTasks;
+    }
+    
+    private static synchronized ThreadPoolExecutor getPrefetchExecutor() {
+        if (prefetchExecutor_ == null) {
+            prefetchExecutor_ = new ThreadPoolExecutor(MAX_CONCURRENT_PREFETCH_TASKS, MAX_CONCURRENT_PREFETCH_TASKS, IDLE_THREAD_KEEP_ALIVE_SEC, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(MAX_QUEUED_PREFETCH_TASKS), new ThreadFactory() {
+                private final AtomicInteger threadCount_ = new AtomicInteger();
+                
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "Roots-Prefetch-" + threadCount_.incrementAndGet());
+                }
+            });
+            prefetchExecutor_.allowCoreThreadTimeOut(true);
+        }
+        return prefetchExecutor_;
+    }
+    
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor_ == null) {
+            executor_ = new ThreadPoolExecutor(maxConcurrentTasks_, maxConcurrentTasks_, IDLE_THREAD_KEEP_ALIVE_SEC, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(MAX_QUEUED_TASKS), new ThreadFactory() {
+                private final AtomicInteger threadCount_ = new AtomicInteger();
+                
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "Roots-Resolver-" + threadCount_.incrementAndGet());
+                }
+            });
+            executor_.allowCoreThreadTimeOut(true);
+        }
+        return executor_;
+    }
+    
+    /**
+     * @return Executor shared by all the {@link BatchResolver}s
+     */
+    static synchronized ThreadPoolExecutor getBatchExecutor() {
+        if (batchExecutor_ == null) {
+            batchExecutor_ = new ThreadPoolExecutor(MAX_CONCURRENT_BATCH_TASKS, MAX_CONCURRENT_BATCH_TASKS, IDLE_THREAD_KEEP_ALIVE_SEC, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(MAX_QUEUED_BATCH_TASKS), new ThreadFactory() {
+                private final AtomicInteger threadCount_ = new AtomicInteger();
+                
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "Roots-Batch-" + threadCount_.incrementAndGet());
+                }
+            });
+            batchExecutor_.allowCoreThreadTimeOut(true);
+        }
+        return batchExecutor_;
+    }
+    
     /**
      * Registers a click on the given URl. This methods is simulate the link being opened in the browser
      *
      * @param context  Application context
      * @param url      The Url to open the app
      * @param callback A {@link RootsFinder.IRootsConnectionExtractorEvents} object for result callback
+     * @return {@link RootsConnection} handle for cancelling the click registration
      */
-    public static void registerClick(final Context context, final String url, String browserAgentString, final Roots.IRootsEvents callback) {
-        new CaptureAppLaunchConfigTask(context, url, getUserAgentString(context, url, browserAgentString, false), false, callback).execute();
+    public static RootsConnection registerClick(final Context context, final String url, String browserAgentString, final Roots.IRootsEvents callback) {
+        return new CaptureAppLaunchConfigTask(context, url, getUserAgentString(context, url, browserAgentString, false), false, false, callback).start();
     }
     
     /**
      * <p>
-     * Background task for getting the {@link AppLaunchConfig} for the given url
+     * Background task for getting the {@link AppLaunchConfig} for the given url. Task runs on the SDK executor and posts
+     * the result to the main thread. Cancelling the task disconnects any active url connection of the task.
+     * Concurrent resolutions of the same url subscribe to the same task, and the result is delivered to every subscriber.
+     * The task is cancelled only when all of its subscribers are cancelled.
      * </p>
      */
-    private static class CaptureAppLaunchConfigTask extends AsyncTask<Void, Void, URLContent> {
+    private static class CaptureAppLaunchConfigTask implements Runnable, RootsConnection {
         private final Context context_;
-        private final String browserAgentString_;
+        /* User agent for loading the url. Null if the default user agent is to be resolved in background */
+        private String browserAgentString_;
         private final Object callback_;
         private final String actualUrl_;
         private final boolean extractAppLinkMetadata_;
+        private final boolean useWebViewFallback_;
+        private AppLaunchConfigCache.Entry cacheEntry_;
+        private final ArrayList<Subscription> subscriptions_ = new ArrayList<>();
+        private String taskKey_;
+        /* True while the task is a background prefetch not requested by any connection yet */
+        private boolean isPrefetch_;
+        /* True while the task is kept running for the cache even without subscribers. Guarded by the inFlightTasks_ lock */
+        private boolean isPrefetchTask_;
+        private ExecutorService executor_;
+        /* Latest deadline of the subscribers for capping the network timeouts, in elapsed realtime milliseconds. 0 if no deadline */
+        private volatile long deadline_;
+        private Future<?> future_;
+        /* True once the task is running on an executor. Guarded by the task lock */
+        private boolean isStarted_;
+        private volatile HttpTransport.Call activeCall_;
+        private volatile boolean isCancelled_;
+        private volatile boolean isDone_;
         
-        public CaptureAppLaunchConfigTask(Context context, String actualUrl, String browserAgentString, boolean extractAppLinkMetadata, Object callback) {
+        public CaptureAppLaunchConfigTask(Context context, String actualUrl, String browserAgentString, boolean extractAppLinkMetadata, boolean useWebViewFallback, Object callback) {
             context_ = context;
             browserAgentString_ = browserAgentString;
             callback_ = callback;
             actualUrl_ = actualUrl;
             extractAppLinkMetadata_ = extractAppLinkMetadata;
+            useWebViewFallback_ = useWebViewFallback;
+        }
+        
+        /**
+         * Adds a subscriber for the result of this task. Should be called holding the {@link #inFlightTasks_} lock.
+         *
+         * @param url      Url resolved by the subscriber
+         * @param callback Callback for the subscriber
+         * @return {@link RootsConnection} handle for cancelling the subscription
+         */
+        Subscription subscribe(String url, IRootsConnectionExtractorEvents callback) {
+            Subscription subscription = new Subscription(this, url, callback);
+            subscriptions_.add(subscription);
+            return subscription;
+        }
+        
+        /**
+         * Removes a cancelled subscriber and cancels the task if there are no more subscribers for the result.
+         */
+        void unsubscribe(Subscription subscription) {
+            boolean cancelTask = false;
+            synchronized (inFlightTasks_) {
+                // A prefetch task is kept running for populating the cache even if the subscribers are cancelled
+                if (subscriptions_.remove(subscription) && subscriptions_.isEmpty() && !isPrefetchTask_) {
+                    if (inFlightTasks_.get(taskKey_) == this) {
+                        inFlightTasks_.remove(taskKey_);
+                    }
+                    cancelTask = true;
+                }
+            }
+            if (cancelTask) {
+                cancel();
+            }
+        }
+        
+        /**
+         * Delivers the app launch config to all the subscribers. Each subscriber gets its own copy of the config.
+         */
+        private void deliver(AppLaunchConfig configTemplate, CONN_EXTRACT_ERR err) {
+            ArrayList<Subscription> subscriptions;
+            synchronized (inFlightTasks_) {
+                if (inFlightTasks_.get(taskKey_) == this) {
+                    inFlightTasks_.remove(taskKey_);
+                }
+                subscriptions = new ArrayList<>(subscriptions_);
+                subscriptions_.clear();
+                for (Subscription subscription : subscriptions) {
+                    subscription.isDone_ = true;
+                }
+            }
+            // Metadata is parsed once and the config is copied for each subscriber
+            for (Subscription subscription : subscriptions) {
+                subscription.stopDeadline();
+                if (subscription.callback_ == null) {
+                    continue;
+                }
+                if (err != CONN_EXTRACT_ERR.NO_ERROR && subscription.isDeadlinePassed()) {
+                    // Load failed on the timeouts capped by the deadline of this subscriber. Reported same as its deadline timer
+                    subscription.callback_.onAppLaunchConfigAvailable(subscription.createTimeoutConfig(context_), CONN_EXTRACT_ERR.ERR_TIMEOUT);
+                } else {
+                    subscription.callback_.onAppLaunchConfigAvailable(new AppLaunchConfig(configTemplate, subscription.url_), err);
+                }
+            }
+        }
+        
+        void setTimeout(long timeoutMillis) {
+            deadline_ = timeoutMillis > 0 ? SystemClock.elapsedRealtime() + timeoutMillis : 0;
+        }
+        
+        /**
+         * Relaxes the network timeout cap of the task for a subscriber joining with the given timeout, so that the task is not cut
+         * short by the deadline of an earlier subscriber. The timeout of each subscriber is enforced by its own {@link Subscription}.
+         * Should be called holding the {@link #inFlightTasks_} lock.
+         *
+         * @param timeoutMillis Timeout of the joining subscriber or {@link #NO_TIMEOUT}
+         */
+        void relaxTimeout(long timeoutMillis) {
+            if (deadline_ != 0) {
+                deadline_ = timeoutMillis > 0 ? Math.max(deadline_, SystemClock.elapsedRealtime() + timeoutMillis) : 0;
+            }
+        }
+        
+        /**
+         * Get the timeout for the next blocking network operation of the task. Default timeout is capped by the time left for the task deadline.
+         *
+         * @param defaultTimeoutMillis Default timeout for the operation
+         * @return Timeout in milliseconds
+         * @throws SocketTimeoutException if the task deadline is already passed
+         */
+        int getTimeout(int defaultTimeoutMillis) throws SocketTimeoutException {
+            if (deadline_ == 0) {
+                return defaultTimeoutMillis;
+            }
+            long remainingMillis = deadline_ - SystemClock.elapsedRealtime();
+            if (remainingMillis <= 0) {
+                throw new SocketTimeoutException("Resolution deadline exceeded");
+            }
+            return (int) Math.min(defaultTimeoutMillis, remainingMillis);
+        }
+        
+        RootsConnection start() {
+            try {
+                synchronized (this) {
+                    isPrefetchTask_ |= isPrefetch_;
+                    ExecutorService executor = executor_ != null ? executor_ : (isPrefetch_ ? getPrefetchExecutor() : getExecutor());
+                    future_ = executor.submit(this);
+                }
+            } catch (RejectedExecutionException ex) {
+                // Too many pending tasks. Report as an error, posted so that the callbacks never run inside the caller
+                postResult(null);
+            }
+            return this;
+        }
+        
+        /**
+         * Hands a prefetch task over to the connections joining it. Cancelling the connections stops the task from then on, and a
+         * task still waiting in the prefetch queue is moved to the executor for connections. Should be called holding the
+         * {@link #inFlightTasks_} lock.
+         */
+        synchronized void promote() {
+            isPrefetchTask_ = false;
+            if (isPrefetch_ && !isStarted_) {
+                isPrefetch_ = false;
+                if (future_ != null && future_.cancel(false)) {
+                    start();
+                }
+            }
+        }
+        
+        @Override
+        public void run() {
+            synchronized (this) {
+                // A queued prefetch cancelled for promotion is not run by its future, this only guards against running twice
+                if (isStarted_) {
+                    return;
+                }
+                isStarted_ = true;
+            }
+            URLContent urlContent = doInBackground();
+            activeCall_ = null;
+            postResult(urlContent);
+        }
+        
+        /**
+         * Delivers the result of the task on the main thread unless the task is cancelled by then.
+         */
+        private void postResult(final URLContent urlContent) {
+            if (!isCancelled_) {
+                mainHandler_.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isCancelled_) {
+                            onPostExecute(urlContent);
+                        }
+                        isDone_ = true;
+                    }
+                });
+            }
+        }
+        
+        @Override
+        public void cancel() {
+            if (!isDone_) {
+                isCancelled_ = true;
+                HttpTransport.Call activeCall = activeCall_;
+                if (activeCall != null) {
+                    activeCall.cancel();
+                }
+                if (future_ != null) {
+                    future_.cancel(true);
+                }
+            }
         }
         
         @Override
-        protected URLContent doInBackground(Void... params) {
+        public boolean isCancelled() {
+            return isCancelled_;
+        }
+        
+        @Override
+        public boolean isDone() {
+            return isDone_ || isCancelled_;
+        }
+        
+        /**
+         * Sets the http call in progress, so that it can be cancelled on cancelling the task.
+         *
+         * @param call Active {@link HttpTransport.Call} of the task
+         * @return False if the task is already cancelled
+         */
+        boolean setActiveCall(HttpTransport.Call call) {
+            activeCall_ = call;
+            return !isCancelled_;
+        }
+        
+        private URLContent doInBackground() {
+            if (browserAgentString_ == null) {
+                browserAgentString_ = getUserAgentString(context_, actualUrl_, null, false);
+            }
             if (extractAppLinkMetadata_) {
-                return getURLContent(actualUrl_, browserAgentString_);
+                AppLaunchConfigCache cache = AppLaunchConfigCache.getInstance(context_);
+                AppLaunchConfigCache.Entry cacheEntry = cache.get(actualUrl_);
+                if (cacheEntry != null && !cacheEntry.isUsableFor(useWebViewFallback_)) {
+                    // Page is to be loaded again for the WebView, a revalidation would only confirm the empty metadata
+                    cacheEntry = null;
+                }
+                if (cacheEntry != null && cacheEntry.isFresh()) {
+                    cacheEntry_ = cacheEntry;
+                    return null;
+                }
+                // Revalidate the stale metadata if there is any
+                URLContent urlContent = getURLContent(actualUrl_, browserAgentString_, useWebViewFallback_, cacheEntry, this);
+                if (urlContent != null && urlContent.isNotModified() && cacheEntry != null) {
+                    cacheEntry_ = cache.putRevalidated(actualUrl_, cacheEntry, urlContent);
+                    return null;
+                } else if (isCacheable(urlContent, useWebViewFallback_)) {
+                    cache.put(actualUrl_, urlContent, urlContent.getAppLinkMetadata());
+                }
+                return urlContent;
             } else {
-                simulateClick(actualUrl_, browserAgentString_);
+                simulateClick(actualUrl_, browserAgentString_, this);
                 return null;
             }
         }
         
-        @Override
-        protected void onPostExecute(URLContent urlContent) {
-            super.onPostExecute(urlContent);
+        private void onPostExecute(URLContent urlContent) {
             if (extractAppLinkMetadata_) {
-                IRootsConnectionExtractorEvents callback = callback_ instanceof IRootsConnectionExtractorEvents ? (IRootsConnectionExtractorEvents) callback_ : null;
-                captureAppLinkMetaData(context_, urlContent, browserAgentString_, actualUrl_, callback);
+                if (cacheEntry_ != null) {
+                    deliver(cacheEntry_.createAppLaunchConfig(actualUrl_), CONN_EXTRACT_ERR.NO_ERROR);
+                    return;
+                }
+                captureAppLinkMetaData(context_, actualUrl_, urlContent, browserAgentString_, useWebViewFallback_, new IAppLinkMetadataEvents() {
+                    @Override
+                    public void onAppLinkMetadataAvailable(AppLaunchConfig appLaunchConfig, CONN_EXTRACT_ERR err) {
+                        // Drop the results delivered after cancelling, eg. from the WebView extraction
+                        if (!isCancelled_) {
+                            deliver(appLaunchConfig, err);
+                        }
+                    }
+                });
             } else {
                 if (callback_ instanceof Roots.IRootsEvents) {
                     ((Roots.IRootsEvents) callback_).onFallbackUrlOpened(actualUrl_);
@@ -123,63 +641,163 @@ class RootsFinder {
     }
     
     
+    /**
+     * <p>
+     * Subscription of a connection to the result of a {@link CaptureAppLaunchConfigTask}
+     * </p>
+     */
+    private static class Subscription implements RootsConnection {
+        private final CaptureAppLaunchConfigTask task_;
+        private final String url_;
+        private final IRootsConnectionExtractorEvents callback_;
+        private volatile boolean isCancelled_;
+        private volatile boolean isDone_;
+        private Runnable deadlineRunnable_;
+        /* Deadline of the subscriber in elapsed realtime milliseconds. 0 if no deadline */
+        private long deadline_;
+        
+        Subscription(CaptureAppLaunchConfigTask task, String url, IRootsConnectionExtractorEvents callback) {
+            task_ = task;
+            url_ = url;
+            callback_ = callback;
+        }
+        
+        /**
+         * Starts a timer for delivering a timeout error if the result is not delivered within the given time. The subscription is
+         * removed from the task on timeout, so the task is cancelled if there are no other subscribers.
+         */
+        void startDeadline(final Context context, long timeoutMillis) {
+            if (timeoutMillis <= 0) {
+                return;
+            }
+            deadline_ = SystemClock.elapsedRealtime() + timeoutMillis;
+            Runnable deadlineRunnable = new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (inFlightTasks_) {
+                        if (isDone_ || isCancelled_) {
+                            return;
+                        }
+                        isDone_ = true;
+                    }
+                    task_.unsubscribe(Subscription.this);
+                    if (callback_ != null) {
+                        callback_.onAppLaunchConfigAvailable(createTimeoutConfig(context), CONN_EXTRACT_ERR.ERR_TIMEOUT);
+                    }
+                }
+            };
+            synchronized (inFlightTasks_) {
+                if (isDone_ || isCancelled_) {
+                    return;
+                }
+                deadlineRunnable_ = deadlineRunnable;
+            }
+            mainHandler_.postDelayed(deadlineRunnable, timeoutMillis);
+        }
+        
+        /**
+         * @return True if the subscriber has a deadline and it is passed
+         */
+        boolean isDeadlinePassed() {
+            return deadline_ != 0 && SystemClock.elapsedRealtime() >= deadline_;
+        }
+        
+        /**
+         * Creates the config reported on timeout. Routes with whatever is known for the url, ie. any stale metadata in the cache.
+         */
+        AppLaunchConfig createTimeoutConfig(Context context) {
+            AppLaunchConfigCache.Entry staleEntry = AppLaunchConfigCache.getInstance(context).getFromMemory(url_);
+            return new AppLaunchConfig(staleEntry != null ? staleEntry.getMetadata() : null, url_);
+        }
+        
+        void stopDeadline() {
+            Runnable deadlineRunnable = deadlineRunnable_;
+            if (deadlineRunnable != null) {
+                mainHandler_.removeCallbacks(deadlineRunnable);
+            }
+        }
+        
+        @Override
+        public void cancel() {
+            synchronized (inFlightTasks_) {
+                if (isDone_ || isCancelled_) {
+                    return;
+                }
+                isCancelled_ = true;
+            }
+            stopDeadline();
+            task_.unsubscribe(this);
+        }
+        
+        @Override
+        public boolean isCancelled() {
+            return isCancelled_;
+        }
+        
+        @Override
+        public boolean isDone() {
+            return isDone_ || isCancelled_;
+        }
+    }
+    
+    /**
+     * Checks if the app link metadata extracted from the url content can be cached. Metadata is not cached for error responses,
+     * for a head only read cut at the read limit before the end of the head, or when the metadata is not found in html source
+     * and going to be read with a WebView.
+     */
+    private static boolean isCacheable(URLContent urlContent, boolean useWebViewFallback) {
+        return urlContent != null && urlContent.getAppLinkMetadata() != null && !urlContent.isTruncated()
+                && urlContent.getResponseCode() >= 200 && urlContent.getResponseCode() < 300
+                && (urlContent.getAppLinkMetadata().length() > 0 || !useWebViewFallback);
+    }
+    
     /**
      * <p>
      * Loads the url and check for any redirection. Extract the app link content form the final redirected
      * url and create an {@link URLContent} instance from the captured html source
      * </p>
      *
-     * @param originUrl URL to app connect
-     * @param userAgent User agent string
+     * @param originUrl      URL to app connect
+     * @param userAgent      User agent string
+     * @param keepHtmlSource True to keep the html source in the {@link URLContent} along with the app link metadata
+     * @param staleEntry     Stale {@link AppLaunchConfigCache.Entry} for the url to revalidate with a conditional request or null
+     * @param task           {@link CaptureAppLaunchConfigTask} loading the url
      * @return {@link URLContent} instance with the content of the given url
      */
-    private static URLContent getURLContent(String originUrl, String userAgent) {
+    private static URLContent getURLContent(String originUrl, String userAgent, boolean keepHtmlSource, AppLaunchConfigCache.Entry staleEntry, CaptureAppLaunchConfigTask task) {
         URLContent urlContent = null;
         try {
-            String finalDestinationURl = originUrl;
-            URLConnection urlConnection = null;
-            
-            while (!TextUtils.isEmpty(finalDestinationURl)) {
-                urlConnection = new URL(originUrl).openConnection();
-                urlConnection.setRequestProperty("Prefer-Html-Meta-Tags", "al");
-                urlConnection.addRequestProperty("User-Agent", userAgent);
-                
-                if (urlConnection instanceof HttpURLConnection) {
-                    ((HttpURLConnection) urlConnection).setInstanceFollowRedirects(true);
+            HashMap<String, String> requestHeaders = new HashMap<>();
+            requestHeaders.put("Prefer-Html-Meta-Tags", "al");
+            requestHeaders.put("Accept-Encoding", ACCEPT_ENCODING);
+            requestHeaders.put("User-Agent", userAgent);
+            if (staleEntry != null) {
+                if (!TextUtils.isEmpty(staleEntry.getETag())) {
+                    requestHeaders.put("If-None-Match", staleEntry.getETag());
                 }
-                
-                urlConnection.connect();
-                if (urlConnection instanceof HttpURLConnection) { //Http url connection is the base class for both http and https url connections
-                    HttpURLConnection httpURLConnection = (HttpURLConnection) urlConnection;
-                    int responseCode = httpURLConnection.getResponseCode();
-                    if (responseCode >= 300 && responseCode < 400) {
-                        finalDestinationURl = httpURLConnection.getHeaderField("Location");
-                        httpURLConnection.disconnect();
-                    } else {
-                        finalDestinationURl = null;
-                    }
-                } else {
-                    finalDestinationURl = null;
+                if (!TextUtils.isEmpty(staleEntry.getLastModified())) {
+                    requestHeaders.put("If-Modified-Since", staleEntry.getLastModified());
                 }
             }
-            urlContent = getURLContentFromConnection(urlConnection);
+            HttpExchange exchange = openConnectionFollowingRedirects(originUrl, requestHeaders, task);
+            if (exchange != null) {
+                urlContent = getURLContentFromConnection(exchange, keepHtmlSource);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
         return urlContent;
     }
     
-    private static void simulateClick(String originUrl, String userAgent) {
-        HttpURLConnection urlConnection = null;
-        HttpURLConnection.setFollowRedirects(true);
+    private static void simulateClick(String originUrl, String userAgent, CaptureAppLaunchConfigTask task) {
         try {
-            String finalDestinationURl = originUrl;
-            urlConnection = (HttpURLConnection) new URL(finalDestinationURl).openConnection();
-            urlConnection.setRequestProperty("User-Agent", userAgent);
-            urlConnection.setInstanceFollowRedirects(true);
-            urlConnection.connect();
-            int responseCode = urlConnection.getResponseCode();
-            
+            HashMap<String, String> requestHeaders = new HashMap<>();
+            requestHeaders.put("User-Agent", userAgent);
+            HttpExchange exchange = openConnectionFollowingRedirects(originUrl, requestHeaders, task);
+            if (exchange != null) {
+                // Body of the final page is not needed
+                exchange.call_.cancel();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -187,103 +805,330 @@ class RootsFinder {
     
     /**
      * <p>
-     * Get the Contents of a given URL connection
+     * Request sent with the {@link HttpTransport} and its response
+     * </p>
+     */
+    private static class HttpExchange {
+        private final HttpTransport.Call call_;
+        private final HttpTransport.Response response_;
+        
+        HttpExchange(HttpTransport.Call call, HttpTransport.Response response) {
+            call_ = call;
+            response_ = response;
+        }
+    }
+    
+    /**
+     * <p>
+     * Loads the url with the {@link HttpTransport} and follows the redirects manually till a non redirect response. Relative redirect
+     * locations are resolved against the current url and redirects between http and https are followed. Following is stopped on reaching
+     * {@link #MAX_REDIRECTS} redirects, on a redirect loop or on a redirect to a non http url. Connect and read timeouts of each hop
+     * are capped by the time left for the task deadline, so the deadline is enforced across all the redirects. The number of
+     * redirects and the time spent on them are recorded in the {@link TransferMetrics}.
      * </p>
      *
-     * @param urlConnection {@link URLConnection} instance
-     * @return {@link URLContent} for teh given connection
+     * @param originUrl      URL to load
+     * @param requestHeaders Request headers added to each request
+     * @param task           {@link CaptureAppLaunchConfigTask} loading the url
+     * @return {@link HttpExchange} for the final url with the response received, or null if the redirects cannot be followed
+     * @throws IOException on any error while connecting to the url
      */
-    private static URLContent getURLContentFromConnection(URLConnection urlConnection) {
-        URLContent urlContent = null;
+    private static HttpExchange openConnectionFollowingRedirects(String originUrl, Map<String, String> requestHeaders, CaptureAppLaunchConfigTask task) throws IOException {
+        HttpTransport httpTransport = httpTransport_;
+        URL url = new URL(originUrl);
+        HashSet<String> visitedUrls = new HashSet<>();
+        for (int hop = 0; hop <= MAX_REDIRECTS; hop++) {
+            if (!visitedUrls.add(url.toString())) {
+                // Redirect loop
+                return null;
+            }
+            long hopStartTime = SystemClock.elapsedRealtime();
+            HttpTransport.Request request = new HttpTransport.Request(url.toString(), requestHeaders,
+                    task.getTimeout(DEFAULT_CONNECT_TIMEOUT_MILLIS), task.getTimeout(DEFAULT_READ_TIMEOUT_MILLIS));
+            HttpTransport.Call call = httpTransport.newCall(request);
+            if (!task.setActiveCall(call)) {
+                return null;
+            }
+            HttpTransport.Response response = call.execute();
+            if (!isRedirect(response.getResponseCode())) {
+                return new HttpExchange(call, response);
+            }
+            String location = response.getHeaderField("Location");
+            discardResponseBody(call, response);
+            TransferMetrics.recordRedirect(SystemClock.elapsedRealtime() - hopStartTime);
+            if (TextUtils.isEmpty(location)) {
+                return null;
+            }
+            String locationScheme = Uri.parse(location).getScheme();
+            if (locationScheme != null && !locationScheme.equalsIgnoreCase("http") && !locationScheme.equalsIgnoreCase("https")) {
+                // Redirect to an app uri or any other non http url cannot be loaded
+                return null;
+            }
+            url = new URL(url, location);
+        }
+        // Too many redirects
+        return null;
+    }
+    
+    private static boolean isRedirect(int responseCode) {
+        return responseCode == HttpURLConnection.HTTP_MULT_CHOICE
+                || responseCode == HttpURLConnection.HTTP_MOVED_PERM
+                || responseCode == HttpURLConnection.HTTP_MOVED_TEMP
+                || responseCode == HttpURLConnection.HTTP_SEE_OTHER
+                || responseCode == HTTP_TEMPORARY_REDIRECT
+                || responseCode == HTTP_PERMANENT_REDIRECT;
+    }
+    
+    /**
+     * Reads and discards a small redirect response body so that the connection can be reused for the next hop.
+     * Call is cancelled if the body is too large.
+     */
+    private static void discardResponseBody(HttpTransport.Call call, HttpTransport.Response response) {
         try {
-            urlContent = new URLContent(urlConnection.getContentType());
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            InputStream inputStream = urlConnection.getInputStream();
+            InputStream inputStream = response.getBody();
             byte[] buffer = new byte[1024];
+            int totalLength = 0;
             int length;
             while ((length = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, length);
+                totalLength += length;
+                if (totalLength > MAX_DISCARDED_BODY_BYTES) {
+                    call.cancel();
+                    return;
+                }
+            }
+            response.close();
+        } catch (IOException ignore) {
+            call.cancel();
+        }
+    }
+    
+    /**
+     * <p>
+     * Get the Contents of a given http response. The App Link metadata is extracted while streaming the
+     * response body, so the html source is kept only if asked for. Unless the html source is needed, the download is
+     * stopped at the end of the html head or on reaching the head only read limit and the call is cancelled.
+     * </p>
+     *
+     * @param exchange       {@link HttpExchange} with the response of the final url
+     * @param keepHtmlSource True to keep the html source in the {@link URLContent}
+     * @return {@link URLContent} for teh given connection
+     */
+    private static URLContent getURLContentFromConnection(HttpExchange exchange, boolean keepHtmlSource) {
+        URLContent urlContent = null;
+        HttpTransport.Response response = exchange.response_;
+        InputStream decodedStream = null;
+        try {
+            urlContent = new URLContent(response.getHeaderField("Content-Type"));
+            urlContent.setCachingHeaders(response.getHeaderField("Cache-Control"), parseHttpDate(response.getHeaderField("Expires")),
+                    parseHttpDate(response.getHeaderField("Date")));
+            urlContent.setValidators(response.getHeaderField("ETag"), response.getHeaderField("Last-Modified"));
+            urlContent.setResponseCode(response.getResponseCode());
+            if (urlContent.isNotModified()) {
+                // No content for a not modified response. Cached metadata is used
+                response.close();
+                return urlContent;
+            }
+            int headOnlyReadLimit = headOnlyReadLimit_;
+            boolean isHeadOnlyRead = !keepHtmlSource && headOnlyReadLimit > 0;
+            // Transferred bytes are counted before decompression, head only read limit applies to the decompressed html
+            CountingInputStream transferStream = new CountingInputStream(response.getBody(), CountingInputStream.NO_LIMIT);
+            decodedStream = decodeContentEncoding(transferStream, response.getHeaderField("Content-Encoding"));
+            CountingInputStream inputStream = new CountingInputStream(decodedStream, isHeadOnlyRead ? headOnlyReadLimit : CountingInputStream.NO_LIMIT);
+            PushbackInputStream sniffedStream = new PushbackInputStream(inputStream, CharsetSniffer.MAX_PRESCAN_BYTES);
+            Charset charset = CharsetSniffer.detectCharset(sniffedStream, response.getHeaderField("Content-Type"));
+            urlContent.setContentEncoding(charset.name());
+            // Html source is kept as bytes and decoded only if it is loaded in a WebView
+            HtmlSourceBuffer htmlSource = keepHtmlSource ? new HtmlSourceBuffer(charset) : null;
+            InputStream htmlStream = htmlSource != null ? htmlSource.capture(sniffedStream) : sniffedStream;
+            // Decoded incrementally as the extractor reads, malformed bytes are replaced same as the browsers
+            CharsetDecoder decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            AppLinkTagExtractor extractor = new AppLinkTagExtractor(new InputStreamReader(htmlStream, decoder));
+            extractor.setStopAtHeadEnd(isHeadOnlyRead);
+            urlContent.setAppLinkMetadata(extractor.extract());
+            if (htmlSource != null) {
+                urlContent.setHtmlSource(htmlSource);
+            }
+            boolean stoppedEarly = extractor.isHeadEndReached() || inputStream.isLimitReached();
+            urlContent.setBytesRead(transferStream.getBytesRead());
+            urlContent.setHeadOnly(isHeadOnlyRead && stoppedEarly);
+            urlContent.setTruncated(inputStream.isLimitReached() && !extractor.isHeadEndReached());
+            TransferMetrics.recordTransfer(transferStream.getBytesRead(), getContentLength(response), urlContent.isHeadOnly());
+            if (urlContent.isHeadOnly()) {
+                // Rest of the body is not needed. Cancel the call instead of draining the body
+                exchange.call_.cancel();
+            } else {
+                response.close();
             }
-            urlContent.setHtmlSource_(outputStream.toString(urlContent.getContentEncoding()));
-            outputStream.close();
-            inputStream.close();
         } catch (Exception ignore) {
+            exchange.call_.cancel();
+        } finally {
+            if (decodedStream != null) {
+                try {
+                    // Releases the native inflater of a compressed body, also when the read fails
+                    decodedStream.close();
+                } catch (IOException ignore) {
+                }
+            }
         }
         return urlContent;
     }
     
+    /**
+     * Wraps the response body with a streaming decompressor for the content encoding of the response. Data is decompressed
+     * only as it is read, so stopping at the end of the html head also stops the download of the compressed body.
+     *
+     * @param body            Response body as received
+     * @param contentEncoding Value of the Content-Encoding header or null
+     * @return {@link InputStream} of the decoded body
+     * @throws IOException if the content encoding is not supported or the body is not valid for the encoding
+     */
+    private static InputStream decodeContentEncoding(InputStream body, String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return body;
+        }
+        contentEncoding = contentEncoding.trim().toLowerCase(Locale.US);
+        if (contentEncoding.length() == 0 || contentEncoding.equals("identity")) {
+            return body;
+        } else if (contentEncoding.equals("gzip") || contentEncoding.equals("x-gzip")) {
+            return new GZIPInputStream(body, DECOMPRESSION_BUFFER_SIZE);
+        } else if (contentEncoding.equals("deflate")) {
+            // Deflate should be zlib wrapped, but some servers send raw deflate data. Check for a zlib header to tell them apart
+            PushbackInputStream pushbackStream = new PushbackInputStream(body, 2);
+            byte[] header = new byte[2];
+            int length = 0;
+            int read;
+            while (length < header.length && (read = pushbackStream.read(header, length, header.length - length)) != -1) {
+                length += read;
+            }
+            pushbackStream.unread(header, 0, length);
+            boolean isZlibWrapped = length == 2 && (header[0] & 0x0F) == 8 && (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+            final Inflater inflater = new Inflater(!isZlibWrapped);
+            return new InflaterInputStream(pushbackStream, inflater, DECOMPRESSION_BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    // Inflater passed to the stream is not released by the stream
+                    inflater.end();
+                    super.close();
+                }
+            };
+        }
+        throw new IOException("Unsupported content encoding " + contentEncoding);
+    }
     
-    private static void captureAppLinkMetaData(Context context, URLContent content, String browserAgentString, final String actualUrl, final IRootsConnectionExtractorEvents callback) {
+    /**
+     * @return Value of the Content-Length header of the response or -1 if not known
+     */
+    private static long getContentLength(HttpTransport.Response response) {
+        String contentLength = response.getHeaderField("Content-Length");
+        if (contentLength != null) {
+            try {
+                return Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * @param httpDate Value of a http date header
+     * @return Date in milliseconds or 0 if the date is missing or invalid
+     */
+    private static long parseHttpDate(String httpDate) {
+        if (httpDate != null) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+            dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                Date date = dateFormat.parse(httpDate.trim());
+                return date.getTime();
+            } catch (ParseException ignore) {
+            }
+        }
+        return 0;
+    }
+    
+    
+    /**
+     * <p>
+     * Gets the app link metadata extracted from the url content. If opted, the page is loaded in a WebView to read the
+     * app link metadata in case there is no metadata in the html source (eg. pages adding the meta tags with javascript).
+     * The WebViews are taken from the {@link WebViewPool}, so this should be called on the main thread. The metadata read by
+     * the WebView is streamed in to the {@link AppLaunchConfig} without building the JSON objects.
+     * </p>
+     */
+    private static void captureAppLinkMetaData(Context context, final String url, URLContent content, String browserAgentString, boolean useWebViewFallback, final IAppLinkMetadataEvents callback) {
         try {
-            if (content != null && !TextUtils.isEmpty(content.getHtmlSource())) {
-                final WebView browser = new WebView(context);
-                browser.setVisibility(View.GONE);
-                
-                browser.getSettings().setJavaScriptEnabled(true);
-                browser.getSettings().setBlockNetworkImage(true);
-                browser.getSettings().setCacheMode(WebSettings.LOAD_NO_CACHE);
-                browser.getSettings().setLoadsImagesAutomatically(false);
-                browser.getSettings().setAllowContentAccess(false);
-                browser.getSettings().setDomStorageEnabled(true);
-                
-                browser.getSettings().setUserAgentString(browserAgentString);
-                
-                browser.addJavascriptInterface(new Object() {
-                    @SuppressWarnings("unused")
-                    @JavascriptInterface
-                    public void showHTML(String html) throws JSONException {
-                        AppLaunchConfig appLaunchConfig = new AppLaunchConfig(new JSONArray(html), actualUrl);
-                        if (callback != null) {
-                            callback.onAppLaunchConfigAvailable(appLaunchConfig, CONN_EXTRACT_ERR.NO_ERROR);
-                        }
-                    }
-                }, "HTMLOUT");
-                
-                browser.setWebViewClient(new WebViewClient() {
-                    @Override
-                    public void onPageStarted(WebView view, String url, Bitmap favicon) {
-                        super.onPageStarted(view, url, favicon);
-                    }
-                    
-                    @Override
-                    public void onPageFinished(WebView view, String url) {
-                        browser.loadUrl(METADATA_READ_JAVASCRIPT);
-                    }
-                });
-                
-                browser.loadDataWithBaseURL(null, content.getHtmlSource(), content.getContentType(), content.getContentEncoding(), null);
+            if (content != null && content.getAppLinkMetadata() != null
+                    && (content.getAppLinkMetadata().length() > 0 || !useWebViewFallback)) {
+                callback.onAppLinkMetadataAvailable(new AppLaunchConfig(content.getAppLinkMetadata(), url), CONN_EXTRACT_ERR.NO_ERROR);
+            } else if (useWebViewFallback && content != null && content.hasHtmlSource()) {
+                WebViewPool.getInstance(context).readMetadata(content.getHtmlSource(), content.getContentType(), content.getContentEncoding(),
+                        browserAgentString, METADATA_READ_JAVASCRIPT, new WebViewPool.IMetadataCallback() {
+                            @Override
+                            public void onMetadataRead(String metadataJson) {
+                                AppLaunchConfig appLaunchConfig = null;
+                                if (metadataJson != null) {
+                                    try {
+                                        appLaunchConfig = AppLaunchConfig.createFromJson(new JsonReader(new StringReader(metadataJson)), url);
+                                    } catch (IOException | IllegalStateException ignore) {
+                                        // Not a valid metadata array
+                                    }
+                                }
+                                if (appLaunchConfig != null) {
+                                    callback.onAppLinkMetadataAvailable(appLaunchConfig, CONN_EXTRACT_ERR.NO_ERROR);
+                                } else {
+                                    callback.onAppLinkMetadataAvailable(new AppLaunchConfig((JSONArray) null, url), CONN_EXTRACT_ERR.ERR_UNKNOWN);
+                                }
+                            }
+                        });
             } else {
-                if (callback != null) {
-                    AppLaunchConfig appLaunchConfig = new AppLaunchConfig(null, actualUrl);
-                    callback.onAppLaunchConfigAvailable(appLaunchConfig, CONN_EXTRACT_ERR.ERR_UNKNOWN);
-                }
+                callback.onAppLinkMetadataAvailable(new AppLaunchConfig((JSONArray) null, url), CONN_EXTRACT_ERR.ERR_UNKNOWN);
             }
         } catch (Exception ex) {
-            if (callback != null) {
-                AppLaunchConfig appLaunchConfig = new AppLaunchConfig(null, actualUrl);
-                callback.onAppLaunchConfigAvailable(appLaunchConfig, CONN_EXTRACT_ERR.ERR_UNKNOWN);
-            }
-            
+            callback.onAppLinkMetadataAvailable(new AppLaunchConfig((JSONArray) null, url), CONN_EXTRACT_ERR.ERR_UNKNOWN);
         }
     }
     
-    private static String getUserAgentString(Context context, String url, String customUserAgentString, boolean filterBranchLinks) {
+    private static boolean isBranchLink(String url) {
+        try {
+            Uri uri = Uri.parse(url);
+            return uri.getHost().equalsIgnoreCase("bnc.lt")
+                    || uri.getHost().toLowerCase().endsWith(".app.link");
+        } catch (Exception ignore) {
+        }
+        return false;
+    }
+    
+    /**
+     * Get the user agent string for a url when the default user agent is already known. Used when loading multiple urls
+     * so that the default user agent is created only once.
+     *
+     * @param context          Application context
+     * @param url              The url to load
+     * @param defaultUserAgent User agent string for non Branch links
+     * @return User agent string for the url
+     */
+    static String getUserAgentString(Context context, String url, String defaultUserAgent) {
+        return isBranchLink(url) ? getUserAgentString(context, url, null, true) : defaultUserAgent;
+    }
+    
+    /**
+     * Get the user agent string for loading the url. Returns null if the default user agent is needed but not available yet
+     * on the main thread. In that case the user agent is resolved by the task in background.
+     */
+    static String getUserAgentString(Context context, String url, String customUserAgentString, boolean filterBranchLinks) {
         // Check if the url is a Branch Url
         // AA: We're going to need to get rid of this code. You can update the backend to check for 'app connector'. It's fine to leave this for the time being though.
-        if (filterBranchLinks) {
-            try {
-                Uri uri = Uri.parse(url);
-                if (uri.getHost().equalsIgnoreCase("bnc.lt")
-                        || uri.getHost().toLowerCase().endsWith(".app.link")) {
-                    String packageName = context.getApplicationContext().getPackageName();
-                    String sdkVersion = Defines.VERSION_NAME;
-                    return "<" + packageName + " app connector " + sdkVersion + ">";
-                }
-            } catch (Exception ignore) {
-            }
+        if (filterBranchLinks && isBranchLink(url)) {
+            String packageName = context.getApplicationContext().getPackageName();
+            String sdkVersion = Defines.VERSION_NAME;
+            return "<" + packageName + " app connector " + sdkVersion + ">";
+        }
+        String uaString = customUserAgentString != null ? customUserAgentString : getDefaultUserAgent(context);
+        if (uaString == null) {
+            return null;
         }
-        WebView webView = new WebView(context);
-        String uaString = customUserAgentString != null ? customUserAgentString : webView.getSettings().getUserAgentString();
         String packageName = context.getApplicationContext().getPackageName();
         String sdkVersion = Defines.VERSION_NAME;
         uaString = uaString + " " + packageName + " app connector " + sdkVersion;
@@ -291,6 +1136,43 @@ class RootsFinder {
     }
     
     
+    /**
+     * <p>
+     * Get the default WebView user agent. The user agent is read only once per process. From API 17 it is read with
+     * {@link WebSettings#getDefaultUserAgent(Context)} without creating a WebView. This can take a while if the WebView is not
+     * loaded in the process yet, so it is not read on the main thread and null is returned there until it is read in background.
+     * Below API 17 a WebView is needed, which is created only on the main thread. Until the WebView user agent is read, the
+     * http.agent system property is returned off the main thread without being kept, so it does not replace the WebView user agent.
+     * </p>
+     *
+     * @param context Application context
+     * @return Default user agent or null if it is not available yet on the main thread
+     */
+    static String getDefaultUserAgent(Context context) {
+        String userAgent = defaultUserAgent_;
+        if (userAgent == null) {
+            boolean isMainThread = Looper.myLooper() == Looper.getMainLooper();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                if (isMainThread) {
+                    return null;
+                }
+                try {
+                    userAgent = WebSettings.getDefaultUserAgent(context.getApplicationContext());
+                } catch (Exception ignore) {
+                }
+            } else if (isMainThread) {
+                WebView webView = new WebView(context);
+                userAgent = webView.getSettings().getUserAgentString();
+                webView.destroy();
+            }
+            if (userAgent == null) {
+                return System.getProperty("http.agent");
+            }
+            defaultUserAgent_ = userAgent;
+        }
+        return userAgent;
+    }
+    
     public interface IRootsConnectionExtractorEvents {
         /**
          * Called when AppLaunch config is created for a given url
@@ -301,5 +1183,15 @@ class RootsFinder {
         void onAppLaunchConfigAvailable(AppLaunchConfig appLaunchConfig, CONN_EXTRACT_ERR err);
     }
     
+    private interface IAppLinkMetadataEvents {
+        /**
+         * Called when the app link metadata is extracted for a url
+         *
+         * @param appLaunchConfig {@link AppLaunchConfig} created from the app link metadata. Has no app link data in case of error
+         * @param err             {@link RootsFinder.CONN_EXTRACT_ERR} representing any error while extracting the metadata
+         */
+        void onAppLinkMetadataAvailable(AppLaunchConfig appLaunchConfig, CONN_EXTRACT_ERR err);
+    }
+    
     
 }
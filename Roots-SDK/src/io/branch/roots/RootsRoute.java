@@ -0,0 +1,32 @@
+package io.branch.roots;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>
+ * Declares the deep link routes for an activity. This is the compile time equivalent of the "al:android:url" and "al:web:url"
+ * metadata filters in the manifest. The Roots-Compiler annotation processor generates a route registry class from these
+ * annotations, which is passed to {@link Roots#enableDeeplinkRouting(android.app.Application, Roots.IRouteRegistry)}.
+ * Wildcard fields are specified by "*" and parameters are specified with in "{}".
+ * </p>
+ * <pre>
+ * {@literal @}RootsRoute(value = "myscheme://user/{user_id}", webUrl = "https://my_awesome_site.com/user/{user_id}")
+ * public class MyContentActivity extends Activity {
+ * </pre>
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface RootsRoute {
+    /**
+     * @return Route patterns for the app link uri, same as the "al:android:url" metadata filter
+     */
+    String[] value() default {};
+
+    /**
+     * @return Route patterns for the web url, same as the "al:web:url" metadata filter. Used when there is no match for the app link uri.
+     */
+    String[] webUrl() default {};
+}
@@ -0,0 +1,325 @@
+package io.branch.roots;
+
+import android.app.Activity;
+import android.content.Intent;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+
+/**
+ * <p>
+ * Segment trie for resolving a uri to the activity registered for the most specific matching route pattern.
+ * Patterns and uris are split in to scheme, host and path segments. A pattern segment can be a literal, a "{param}"
+ * matching a single segment, a "*" matching one or more segments or a mixed pattern like "item-{id}" matching a single segment.
+ * Query and fragment of the uri are ignored for matching. The uri is matched through a {@link UriView}, so segments are compared
+ * in place and captured values are copied out of the uri only when they are written to the target intent.
+ * </p>
+ * <p>
+ * A uri is resolved in a single walk of the trie. On each segment the edges are tried in the order of their specificity,
+ * ie literal, mixed pattern, param and then wild card, so the first complete match is the most specific route regardless of
+ * the order in which routes are added. If the same pattern is added more than once, the first one is kept.
+ * </p>
+ */
+class RouteTable {
+
+    private static final String WILDCARD = "*";
+    private static final String PATTERN_KEY = "pattern";
+    private static final String ACTIVITY_KEY = "activity";
+
+    private final Node root_ = new Node();
+    /* Routes in the order they are added */
+    private final ArrayList<Route> routes_ = new ArrayList<>();
+    /* Maximum number of variables in a route, ie the capture slots needed for matching */
+    private int maxCaptureCount_;
+
+    /**
+     * Route pattern and the activity to launch for it.
+     */
+    static class Route {
+        private final String pattern_;
+        private final String activityName_;
+        /* Activity class for the routes registered with a class literal. Null for the routes read from the manifest */
+        private final Class<? extends Activity> activityClass_;
+
+        Route(String pattern, String activityName, Class<? extends Activity> activityClass) {
+            pattern_ = pattern;
+            activityName_ = activityName;
+            activityClass_ = activityClass;
+        }
+
+        String getPattern() {
+            return pattern_;
+        }
+
+        String getActivityName() {
+            return activityName_;
+        }
+
+        Class<? extends Activity> getActivityClass() {
+            return activityClass_;
+        }
+    }
+
+    /**
+     * Result of resolving a uri. Contains the matched route and the offsets of the param values captured from the uri.
+     */
+    static class RouteMatch {
+        private final UriView uri_;
+        private final boolean ignoreCase_;
+        /* Param name of each captured value, null for wild cards */
+        private final String[] captureNames_;
+        /* Start and end offsets of each captured value in the uri */
+        private final int[] captureBounds_;
+        private int captureCount_;
+        private Route route_;
+
+        private RouteMatch(UriView uri, boolean ignoreCase, int maxCaptureCount) {
+            uri_ = uri;
+            ignoreCase_ = ignoreCase;
+            captureNames_ = new String[maxCaptureCount];
+            captureBounds_ = new int[maxCaptureCount * 2];
+        }
+
+        Route getRoute() {
+            return route_;
+        }
+
+        /**
+         * Adds the captured param values as extras to the given intent. Values are lower cased for a case insensitive match,
+         * same as matching against the lower cased uri.
+         *
+         * @param intent {@link Intent} to add the param values
+         */
+        void writeParams(Intent intent) {
+            String uriString = uri_.getUriString();
+            for (int i = 0; i < captureCount_; i++) {
+                if (captureNames_[i] != null) {
+                    String value = uriString.substring(captureBounds_[2 * i], captureBounds_[2 * i + 1]);
+                    intent.putExtra(captureNames_[i], ignoreCase_ ? value.toLowerCase() : value);
+                }
+            }
+        }
+    }
+
+    private static class Node {
+        private ArrayList<Edge> literalEdges_;
+        private ArrayList<Edge> patternEdges_;
+        private ArrayList<Edge> paramEdges_;
+        private Node wildcardNode_;
+        private Route route_;
+    }
+
+    private static class Edge {
+        /* Segment text for a literal segment */
+        private final String literal_;
+        /* Param name for a "{param}" segment */
+        private final String paramName_;
+        /* Compiled pattern for a mixed segment */
+        private final Matcher.CompiledPattern pattern_;
+        private final Node node_ = new Node();
+
+        Edge(String literal, String paramName, Matcher.CompiledPattern pattern) {
+            literal_ = literal;
+            paramName_ = paramName;
+            pattern_ = pattern;
+        }
+    }
+
+    /**
+     * Adds a route to the table.
+     *
+     * @param pattern      Route pattern with param names in "{}" and wild cards with "*"
+     * @param activityName Name of the activity to launch for the route
+     */
+    public void addRoute(String pattern, String activityName) {
+        addRoute(pattern, activityName, null);
+    }
+
+    /**
+     * Adds a route to the table with the activity class, so that the activity can be launched without looking up the class by name.
+     *
+     * @param pattern       Route pattern with param names in "{}" and wild cards with "*"
+     * @param activityClass Class of the activity to launch for the route
+     */
+    public void addRoute(String pattern, Class<? extends Activity> activityClass) {
+        addRoute(pattern, activityClass.getName(), activityClass);
+    }
+
+    private void addRoute(String pattern, String activityName, Class<? extends Activity> activityClass) {
+        UriView patternView = UriView.forPattern(pattern);
+        Node node = root_;
+        int captureCount = 0;
+        for (int i = 0; i < patternView.getSegmentCount(); i++) {
+            String segment = patternView.getSegment(i);
+            node = getOrAddChild(node, segment);
+            if (isParamSegment(segment)) {
+                captureCount++;
+            } else if (!WILDCARD.equals(segment) && !isLiteralSegment(segment)) {
+                captureCount += Matcher.compile(segment).getVariableCount();
+            }
+        }
+        maxCaptureCount_ = Math.max(maxCaptureCount_, captureCount);
+        if (node.route_ == null) {
+            node.route_ = new Route(pattern, activityName, activityClass);
+            routes_.add(node.route_);
+        }
+    }
+
+    public boolean isEmpty() {
+        return routes_.isEmpty();
+    }
+
+    /**
+     * Finds the most specific route matching the given uri.
+     *
+     * @param uri        {@link UriView} of the uri to resolve
+     * @param ignoreCase True to compare the uri segments with the patterns ignoring case
+     * @return {@link RouteMatch} for the matching route or null if no route matches the uri
+     */
+    public RouteMatch match(UriView uri, boolean ignoreCase) {
+        if (routes_.isEmpty()) {
+            return null;
+        }
+        RouteMatch match = new RouteMatch(uri, ignoreCase, maxCaptureCount_);
+        return matchFrom(root_, 0, 0, match) ? match : null;
+    }
+
+    /**
+     * @return {@link JSONArray} with the pattern and activity name of the routes, in the order they are added
+     * @throws JSONException on error creating the JSON
+     */
+    JSONArray toJson() throws JSONException {
+        JSONArray routesJson = new JSONArray();
+        for (Route route : routes_) {
+            JSONObject routeJson = new JSONObject();
+            routeJson.put(PATTERN_KEY, route.pattern_);
+            routeJson.put(ACTIVITY_KEY, route.activityName_);
+            routesJson.put(routeJson);
+        }
+        return routesJson;
+    }
+
+    static RouteTable fromJson(JSONArray routesJson) throws JSONException {
+        RouteTable routeTable = new RouteTable();
+        for (int i = 0; i < routesJson.length(); i++) {
+            JSONObject routeJson = routesJson.getJSONObject(i);
+            routeTable.addRoute(routeJson.getString(PATTERN_KEY), routeJson.getString(ACTIVITY_KEY));
+        }
+        return routeTable;
+    }
+
+    /**
+     * Walks the trie from the given node in the order of edge specificity. Captured param names and value offsets are kept in
+     * the capture slots of the match from the given capture count, so backtracking only needs to go back to the earlier count.
+     */
+    private static boolean matchFrom(Node node, int index, int captureCount, RouteMatch match) {
+        UriView uri = match.uri_;
+        if (index == uri.getSegmentCount()) {
+            if (node.route_ != null) {
+                match.route_ = node.route_;
+                match.captureCount_ = captureCount;
+                return true;
+            }
+            return false;
+        }
+        int start = uri.getSegmentStart(index);
+        int end = uri.getSegmentEnd(index);
+        if (node.literalEdges_ != null) {
+            for (Edge edge : node.literalEdges_) {
+                if (uri.segmentEquals(index, edge.literal_, match.ignoreCase_) && matchFrom(edge.node_, index + 1, captureCount, match)) {
+                    return true;
+                }
+            }
+        }
+        if (node.patternEdges_ != null) {
+            for (Edge edge : node.patternEdges_) {
+                Matcher.CompiledPattern pattern = edge.pattern_;
+                if (pattern.matches(uri.getUriString(), start, end, match.ignoreCase_, match.captureBounds_, captureCount * 2)) {
+                    for (int i = 0; i < pattern.getVariableCount(); i++) {
+                        match.captureNames_[captureCount + i] = pattern.getParamName(i);
+                    }
+                    if (matchFrom(edge.node_, index + 1, captureCount + pattern.getVariableCount(), match)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        if (node.paramEdges_ != null && end > start) {
+            for (Edge edge : node.paramEdges_) {
+                match.captureNames_[captureCount] = edge.paramName_;
+                match.captureBounds_[2 * captureCount] = start;
+                match.captureBounds_[2 * captureCount + 1] = end;
+                if (matchFrom(edge.node_, index + 1, captureCount + 1, match)) {
+                    return true;
+                }
+            }
+        }
+        if (node.wildcardNode_ != null) {
+            // Wild card consumes one or more segments. Try the shortest first so that the following segments get the specific matches
+            for (int next = index + 1; next <= uri.getSegmentCount(); next++) {
+                if (matchFrom(node.wildcardNode_, next, captureCount, match)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Node getOrAddChild(Node node, String segment) {
+        if (WILDCARD.equals(segment)) {
+            if (node.wildcardNode_ == null) {
+                node.wildcardNode_ = new Node();
+            }
+            return node.wildcardNode_;
+        }
+        if (isLiteralSegment(segment)) {
+            if (node.literalEdges_ == null) {
+                node.literalEdges_ = new ArrayList<>();
+            }
+            for (Edge edge : node.literalEdges_) {
+                if (edge.literal_.equals(segment)) {
+                    return edge.node_;
+                }
+            }
+            Edge edge = new Edge(segment, null, null);
+            node.literalEdges_.add(edge);
+            return edge.node_;
+        }
+        if (isParamSegment(segment)) {
+            String paramName = segment.substring(1, segment.length() - 1);
+            if (node.paramEdges_ == null) {
+                node.paramEdges_ = new ArrayList<>();
+            }
+            for (Edge edge : node.paramEdges_) {
+                if (edge.paramName_.equals(paramName)) {
+                    return edge.node_;
+                }
+            }
+            Edge edge = new Edge(null, paramName, null);
+            node.paramEdges_.add(edge);
+            return edge.node_;
+        }
+        if (node.patternEdges_ == null) {
+            node.patternEdges_ = new ArrayList<>();
+        }
+        for (Edge edge : node.patternEdges_) {
+            if (edge.pattern_.getPattern().equals(segment)) {
+                return edge.node_;
+            }
+        }
+        Edge edge = new Edge(null, null, Matcher.compile(segment));
+        node.patternEdges_.add(edge);
+        return edge.node_;
+    }
+
+    private static boolean isLiteralSegment(String segment) {
+        return segment.indexOf('*') < 0 && segment.indexOf('{') < 0;
+    }
+
+    private static boolean isParamSegment(String segment) {
+        return segment.startsWith("{") && segment.indexOf('}') == segment.length() - 1;
+    }
+}
@@ -0,0 +1,74 @@
+package io.branch.roots;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Process wide counters for the page downloads done for reading the App Link metadata.
+ * Used to measure the bandwidth saved by stopping the downloads at the end of the html head.
+ * </p>
+ */
+class TransferMetrics {
+
+    private static final AtomicLong bytesDownloaded_ = new AtomicLong();
+    private static final AtomicLong bytesSaved_ = new AtomicLong();
+    private static final AtomicLong earlyStoppedTransfers_ = new AtomicLong();
+    private static final AtomicLong redirectsFollowed_ = new AtomicLong();
+    private static final AtomicLong redirectTimeMillis_ = new AtomicLong();
+
+    /**
+     * Records a page download
+     *
+     * @param bytesRead     Number of bytes read from the response body
+     * @param contentLength Content length of the response body or -1 if unknown
+     * @param stoppedEarly  True if the download is stopped before reading the whole body
+     */
+    public static void recordTransfer(long bytesRead, long contentLength, boolean stoppedEarly) {
+        bytesDownloaded_.addAndGet(bytesRead);
+        if (stoppedEarly) {
+            earlyStoppedTransfers_.incrementAndGet();
+            if (contentLength > bytesRead) {
+                bytesSaved_.addAndGet(contentLength - bytesRead);
+            }
+        }
+    }
+
+    /**
+     * Records a redirect followed while loading a page
+     *
+     * @param hopTimeMillis Time taken for the redirect request in milliseconds
+     */
+    public static void recordRedirect(long hopTimeMillis) {
+        redirectsFollowed_.incrementAndGet();
+        redirectTimeMillis_.addAndGet(hopTimeMillis);
+    }
+
+    public static long getBytesDownloaded() {
+        return bytesDownloaded_.get();
+    }
+
+    /**
+     * @return Number of bytes not downloaded due to early stopped downloads. Only counts the responses with a known content length.
+     */
+    public static long getBytesSaved() {
+        return bytesSaved_.get();
+    }
+
+    /**
+     * @return Number of downloads stopped before reading the whole response body
+     */
+    public static long getEarlyStoppedTransfers() {
+        return earlyStoppedTransfers_.get();
+    }
+
+    public static long getRedirectsFollowed() {
+        return redirectsFollowed_.get();
+    }
+
+    /**
+     * @return Total time in milliseconds spent on the redirect requests before reaching the final pages
+     */
+    public static long getRedirectTimeMillis() {
+        return redirectTimeMillis_.get();
+    }
+}
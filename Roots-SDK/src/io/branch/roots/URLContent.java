@@ -1,5 +1,9 @@
 package io.branch.roots;
 
+import org.json.JSONArray;
+
+import java.net.HttpURLConnection;
+
 /**
  * Created by sojanpr on 4/28/16.
  * <p>
@@ -9,18 +13,40 @@ package io.branch.roots;
 class URLContent {
 
     private final String contentType_;
-    private final String contentEncoding_;
-    private String htmlSource_;
+    private String contentEncoding_;
+    private HtmlSourceBuffer htmlSource_;
+    private JSONArray appLinkMetadata_;
+    private long bytesRead_;
+    private boolean isHeadOnly_;
+    private boolean isTruncated_;
+    private int responseCode_;
+    private String cacheControl_;
+    private long expires_;
+    private long date_;
+    private String eTag_;
+    private String lastModified_;
 
     public URLContent(String contentType) {
         contentType_ = contentType;
-        contentEncoding_ = "utf-8";
+        String charset = CharsetSniffer.getContentTypeCharset(contentType);
+        contentEncoding_ = charset != null ? charset : CharsetSniffer.DEFAULT_CHARSET;
     }
 
-    public void setHtmlSource_(String htmlSource) {
+    /**
+     * @param htmlSource {@link HtmlSourceBuffer} with the html source of the page. Content encoding is set to the charset of the source.
+     */
+    public void setHtmlSource(HtmlSourceBuffer htmlSource) {
         htmlSource_ = htmlSource;
+        contentEncoding_ = htmlSource.getCharset().name();
+    }
+
+    public void setContentEncoding(String contentEncoding) {
+        contentEncoding_ = contentEncoding;
     }
 
+    /**
+     * @return Charset of the page detected from the byte order mark, Content-Type header or meta tags
+     */
     public String getContentEncoding() {
         return contentEncoding_;
     }
@@ -29,8 +55,120 @@ class URLContent {
         return contentType_;
     }
 
+    /**
+     * @return True if the html source of the page is kept and not empty
+     */
+    public boolean hasHtmlSource() {
+        return htmlSource_ != null && htmlSource_.size() > 0;
+    }
+
+    /**
+     * Decodes the html source of the page. Source is kept as bytes and decoded on each call.
+     *
+     * @return Html source of the page or null if the source is not kept
+     */
     public String getHtmlSource() {
-        return htmlSource_;
+        return htmlSource_ != null ? htmlSource_.decode() : null;
+    }
+
+    public void setAppLinkMetadata(JSONArray appLinkMetadata) {
+        appLinkMetadata_ = appLinkMetadata;
+    }
+
+    public JSONArray getAppLinkMetadata() {
+        return appLinkMetadata_;
+    }
+
+    public void setBytesRead(long bytesRead) {
+        bytesRead_ = bytesRead;
+    }
+
+    /**
+     * @return Number of bytes read from the response body as transferred, ie. before decompressing a compressed body
+     */
+    public long getBytesRead() {
+        return bytesRead_;
+    }
+
+    public void setHeadOnly(boolean isHeadOnly) {
+        isHeadOnly_ = isHeadOnly;
+    }
+
+    /**
+     * @return True if the download is stopped before reading the whole response body
+     */
+    public boolean isHeadOnly() {
+        return isHeadOnly_;
+    }
+
+    public void setTruncated(boolean isTruncated) {
+        isTruncated_ = isTruncated;
+    }
+
+    /**
+     * @return True if the read is stopped at the head only read limit before the end of the html head, so the metadata may be incomplete
+     */
+    public boolean isTruncated() {
+        return isTruncated_;
+    }
+
+    public void setResponseCode(int responseCode) {
+        responseCode_ = responseCode;
+    }
+
+    public int getResponseCode() {
+        return responseCode_;
+    }
+
+    /**
+     * Sets the caching headers of the response
+     *
+     * @param cacheControl Value of Cache-Control header or null
+     * @param expires      Value of Expires header in milliseconds or 0 if not present
+     * @param date         Value of Date header in milliseconds or 0 if not present
+     */
+    public void setCachingHeaders(String cacheControl, long expires, long date) {
+        cacheControl_ = cacheControl;
+        expires_ = expires;
+        date_ = date;
+    }
+
+    public String getCacheControl() {
+        return cacheControl_;
+    }
+
+    public long getExpires() {
+        return expires_;
+    }
+
+    public long getDate() {
+        return date_;
+    }
+
+    /**
+     * Sets the validators of the response for conditional requests
+     *
+     * @param eTag         Value of ETag header or null
+     * @param lastModified Value of Last-Modified header or null
+     */
+    public void setValidators(String eTag, String lastModified) {
+        eTag_ = eTag;
+        lastModified_ = lastModified;
+    }
+
+    public String getETag() {
+        return eTag_;
+    }
+
+    public String getLastModified() {
+        return lastModified_;
+    }
+
+    /**
+     * @return True if this is a "304 Not Modified" response for a conditional request. There is no content for a not modified response.
+     */
+    public boolean isNotModified() {
+        return responseCode_ == HttpURLConnection.HTTP_NOT_MODIFIED;
     }
 
 }
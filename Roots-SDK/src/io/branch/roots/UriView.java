@@ -0,0 +1,151 @@
+package io.branch.roots;
+
+import android.net.Uri;
+
+/**
+ * <p>
+ * Read only view of a uri string for route matching. The scheme, host and path segments and the query are kept as offsets
+ * in to the original string, so no substrings are created for parsing the uri. Values are copied out of the string only when
+ * they are captured for a matched route or a query parameter is read.
+ * </p>
+ */
+class UriView {
+
+    private static final String SCHEME_SEPARATOR = "://";
+
+    private final String uri_;
+    /* Start and end offsets of the scheme, host and path segments. A trailing "/" does not make a segment */
+    private final int[] segmentBounds_;
+    private final int segmentCount_;
+    /* Start and end offsets of the query, without the "?". Start is -1 if there is no query */
+    private final int queryStart_;
+    private final int queryEnd_;
+
+    UriView(String uri) {
+        this(uri, uri.length(), true);
+    }
+
+    /**
+     * @param uri        Uri or route pattern string
+     * @param end        End offset of the region to parse
+     * @param parseQuery True to split the query and fragment from the path. Route patterns are parsed without it.
+     */
+    private UriView(String uri, int end, boolean parseQuery) {
+        uri_ = uri;
+        int pathEnd = end;
+        int queryStart = -1;
+        int queryEnd = -1;
+        if (parseQuery) {
+            int fragmentStart = uri.indexOf('#');
+            if (fragmentStart >= 0) {
+                pathEnd = fragmentStart;
+            }
+            int questionMark = uri.indexOf('?');
+            if (questionMark >= 0 && questionMark < pathEnd) {
+                queryStart = questionMark + 1;
+                queryEnd = pathEnd;
+                pathEnd = questionMark;
+            }
+        }
+        queryStart_ = queryStart;
+        queryEnd_ = queryEnd;
+
+        int pathStart = 0;
+        int schemeEnd = uri.indexOf(SCHEME_SEPARATOR);
+        boolean hasScheme = schemeEnd >= 0 && schemeEnd < pathEnd;
+        if (hasScheme) {
+            pathStart = schemeEnd + SCHEME_SEPARATOR.length();
+        }
+        // Count the segments first so that the bounds array is allocated only once
+        int count = hasScheme ? 1 : 0;
+        for (int pos = pathStart; pos < pathEnd; count++) {
+            int segmentEnd = uri.indexOf('/', pos);
+            pos = (segmentEnd < 0 || segmentEnd > pathEnd) ? pathEnd : segmentEnd + 1;
+        }
+        segmentCount_ = count;
+        segmentBounds_ = new int[count * 2];
+        int index = 0;
+        if (hasScheme) {
+            segmentBounds_[1] = schemeEnd;
+            index = 1;
+        }
+        for (int pos = pathStart; pos < pathEnd; index++) {
+            int segmentEnd = uri.indexOf('/', pos);
+            if (segmentEnd < 0 || segmentEnd > pathEnd) {
+                segmentEnd = pathEnd;
+            }
+            segmentBounds_[2 * index] = pos;
+            segmentBounds_[2 * index + 1] = segmentEnd;
+            pos = segmentEnd + 1;
+        }
+    }
+
+    /**
+     * @param pattern Route pattern with param names in "{}" and wild cards with "*"
+     * @return {@link UriView} of the route pattern. The whole pattern is taken as the path since "?" is not special in patterns.
+     */
+    static UriView forPattern(String pattern) {
+        return new UriView(pattern, pattern.length(), false);
+    }
+
+    String getUriString() {
+        return uri_;
+    }
+
+    int getSegmentCount() {
+        return segmentCount_;
+    }
+
+    int getSegmentStart(int index) {
+        return segmentBounds_[2 * index];
+    }
+
+    int getSegmentEnd(int index) {
+        return segmentBounds_[2 * index + 1];
+    }
+
+    String getSegment(int index) {
+        return uri_.substring(segmentBounds_[2 * index], segmentBounds_[2 * index + 1]);
+    }
+
+    /**
+     * Checks if the segment at the given index is same as the given literal.
+     */
+    boolean segmentEquals(int index, String literal, boolean ignoreCase) {
+        int start = segmentBounds_[2 * index];
+        return segmentBounds_[2 * index + 1] - start == literal.length()
+                && uri_.regionMatches(ignoreCase, start, literal, 0, literal.length());
+    }
+
+    /**
+     * Finds the value of the first query parameter with the given name. The value is decoded only when it is found.
+     *
+     * @param name Name of the query parameter
+     * @return Decoded value of the parameter or null if the uri doesn't have the parameter
+     */
+    String getQueryParameter(String name) {
+        int pos = queryStart_;
+        while (pos >= 0 && pos < queryEnd_) {
+            int paramEnd = uri_.indexOf('&', pos);
+            if (paramEnd < 0 || paramEnd > queryEnd_) {
+                paramEnd = queryEnd_;
+            }
+            int nameEnd = uri_.indexOf('=', pos);
+            if (nameEnd < 0 || nameEnd > paramEnd) {
+                nameEnd = paramEnd;
+            }
+            if (nameEnd - pos == name.length() && uri_.regionMatches(pos, name, 0, name.length())) {
+                if (nameEnd == paramEnd) {
+                    return "";
+                }
+                String value = uri_.substring(nameEnd + 1, paramEnd);
+                if (value.indexOf('%') >= 0 || value.indexOf('+') >= 0) {
+                    value = Uri.decode(value.replace('+', ' '));
+                }
+                return value;
+            }
+            pos = paramEnd + 1;
+        }
+        return null;
+    }
+}
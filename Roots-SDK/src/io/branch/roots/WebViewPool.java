@@ -0,0 +1,266 @@
+package io.branch.roots;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.View;
+import android.webkit.JavascriptInterface;
+import android.webkit.WebSettings;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import java.util.ArrayList;
+
+/**
+ * <p>
+ * Pool of WebViews for reading the app link metadata with javascript, for the pages adding the meta tags with scripts.
+ * WebViews are configured once with a single persistent javascript interface and reused across extractions. A WebView is
+ * reset to a blank page after each use before it goes back to the pool, and destroyed if the reset does not finish in time.
+ * Idle and resetting WebViews are destroyed when the system is running low on memory or the app UI is hidden. All the methods
+ * should be called on the main thread.
+ * </p>
+ */
+class WebViewPool implements ComponentCallbacks2 {
+
+    private static final int MAX_IDLE_WEBVIEWS = 2;
+    /* Maximum time to wait for the page load and metadata script, so that a stuck WebView is not held forever */
+    private static final long EXTRACTION_TIMEOUT_MILLIS = 15 * 1000;
+    /* Maximum time to wait for the blank page after an extraction, so that a WebView stuck in reset is not held forever */
+    private static final long RESET_TIMEOUT_MILLIS = 5 * 1000;
+    private static final String JAVASCRIPT_INTERFACE_NAME = "HTMLOUT";
+    private static final String BLANK_PAGE_URL = "about:blank";
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_LOADING = 1;
+    private static final int STATE_READING_METADATA = 2;
+    private static final int STATE_RESETTING = 3;
+    private static final int STATE_DESTROYED = 4;
+
+    private static WebViewPool instance_;
+
+    private final Context context_;
+    private final Handler mainHandler_ = new Handler(Looper.getMainLooper());
+    private final ArrayList<PooledWebView> idleWebViews_ = new ArrayList<>();
+    private final ArrayList<PooledWebView> resettingWebViews_ = new ArrayList<>();
+    private boolean isPrewarmScheduled_;
+
+    interface IMetadataCallback {
+        /**
+         * Called on main thread with the result of the metadata script.
+         *
+         * @param metadataJson JSON string returned by the script or null in case of error
+         */
+        void onMetadataRead(String metadataJson);
+    }
+
+    private WebViewPool(Context context) {
+        context_ = context;
+        context_.registerComponentCallbacks(this);
+    }
+
+    public static synchronized WebViewPool getInstance(Context context) {
+        if (instance_ == null) {
+            instance_ = new WebViewPool(context.getApplicationContext());
+        }
+        return instance_;
+    }
+
+    /**
+     * Creates a WebView for the pool when the main thread is idle, so that the first extraction doesn't pay for the WebView creation.
+     */
+    public void prewarm() {
+        mainHandler_.post(new Runnable() {
+            @Override
+            public void run() {
+                if (isPrewarmScheduled_ || !idleWebViews_.isEmpty()) {
+                    return;
+                }
+                isPrewarmScheduled_ = true;
+                Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                    @Override
+                    public boolean queueIdle() {
+                        isPrewarmScheduled_ = false;
+                        if (idleWebViews_.isEmpty()) {
+                            try {
+                                idleWebViews_.add(new PooledWebView());
+                            } catch (Exception ignore) {
+                                // WebView may not be available on the device
+                            }
+                        }
+                        return false;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Loads the html in a pooled WebView and runs the given script to read the metadata. The script should pass the result to
+     * {@code window.HTMLOUT.showHTML()}.
+     *
+     * @param htmlSource      Html source of the page
+     * @param contentType     Mime type of the page
+     * @param contentEncoding Encoding of the page
+     * @param userAgent       User agent for the WebView
+     * @param javascript      Javascript url for reading the metadata
+     * @param callback        {@link IMetadataCallback} for the result
+     */
+    public void readMetadata(String htmlSource, String contentType, String contentEncoding, String userAgent, String javascript, IMetadataCallback callback) {
+        PooledWebView pooledWebView = idleWebViews_.isEmpty() ? new PooledWebView() : idleWebViews_.remove(idleWebViews_.size() - 1);
+        pooledWebView.load(htmlSource, contentType, contentEncoding, userAgent, javascript, callback);
+    }
+
+    /**
+     * Destroys all the idle WebViews and the WebViews being reset. WebViews in use are not affected, they go back to the pool
+     * when the extraction is done.
+     */
+    public void trim() {
+        for (PooledWebView pooledWebView : idleWebViews_) {
+            pooledWebView.destroy();
+        }
+        idleWebViews_.clear();
+        // Copied since destroying removes the WebView from the list
+        for (PooledWebView pooledWebView : new ArrayList<>(resettingWebViews_)) {
+            pooledWebView.destroy();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trim();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    private class PooledWebView {
+        private final WebView webView_;
+        private int state_ = STATE_IDLE;
+        private String javascript_;
+        private IMetadataCallback callback_;
+        private final Runnable timeoutRunnable_ = new Runnable() {
+            @Override
+            public void run() {
+                finish(null, true);
+            }
+        };
+        private final Runnable resetTimeoutRunnable_ = new Runnable() {
+            @Override
+            public void run() {
+                if (state_ == STATE_RESETTING) {
+                    destroy();
+                }
+            }
+        };
+
+        PooledWebView() {
+            webView_ = new WebView(context_);
+            webView_.setVisibility(View.GONE);
+
+            WebSettings settings = webView_.getSettings();
+            settings.setJavaScriptEnabled(true);
+            settings.setBlockNetworkImage(true);
+            settings.setCacheMode(WebSettings.LOAD_NO_CACHE);
+            settings.setLoadsImagesAutomatically(false);
+            settings.setAllowContentAccess(false);
+            settings.setDomStorageEnabled(true);
+
+            webView_.addJavascriptInterface(new Object() {
+                @SuppressWarnings("unused")
+                @JavascriptInterface
+                public void showHTML(final String html) {
+                    // Called on the javascript bridge thread
+                    mainHandler_.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (state_ == STATE_READING_METADATA) {
+                                finish(html, false);
+                            }
+                        }
+                    });
+                }
+            }, JAVASCRIPT_INTERFACE_NAME);
+
+            webView_.setWebViewClient(new WebViewClient() {
+                @Override
+                public void onPageFinished(WebView view, String url) {
+                    if (state_ == STATE_LOADING) {
+                        state_ = STATE_READING_METADATA;
+                        webView_.loadUrl(javascript_);
+                    } else if (state_ == STATE_RESETTING && BLANK_PAGE_URL.equals(url)) {
+                        mainHandler_.removeCallbacks(resetTimeoutRunnable_);
+                        resettingWebViews_.remove(PooledWebView.this);
+                        state_ = STATE_IDLE;
+                        returnToPool();
+                    }
+                }
+            });
+        }
+
+        void load(String htmlSource, String contentType, String contentEncoding, String userAgent, String javascript, IMetadataCallback callback) {
+            state_ = STATE_LOADING;
+            javascript_ = javascript;
+            callback_ = callback;
+            webView_.getSettings().setUserAgentString(userAgent);
+            mainHandler_.postDelayed(timeoutRunnable_, EXTRACTION_TIMEOUT_MILLIS);
+            webView_.loadDataWithBaseURL(null, htmlSource, contentType, contentEncoding, null);
+        }
+
+        /**
+         * Delivers the result and resets the WebView to a blank page. WebView goes back to the pool once the blank page is loaded,
+         * or is destroyed if the blank page is not loaded within {@link #RESET_TIMEOUT_MILLIS}. A timed out WebView is destroyed instead, since the page it stopped loading may still report its page finish, which
+         * cannot be told apart from the finish of the blank page.
+         *
+         * @param metadataJson Result of the metadata script or null in case of error
+         * @param isTimedOut   True if the page load or the script did not complete in time
+         */
+        private void finish(String metadataJson, boolean isTimedOut) {
+            mainHandler_.removeCallbacks(timeoutRunnable_);
+            IMetadataCallback callback = callback_;
+            callback_ = null;
+            javascript_ = null;
+            if (isTimedOut || idleWebViews_.size() >= MAX_IDLE_WEBVIEWS) {
+                destroy();
+            } else {
+                state_ = STATE_RESETTING;
+                resettingWebViews_.add(this);
+                mainHandler_.postDelayed(resetTimeoutRunnable_, RESET_TIMEOUT_MILLIS);
+                webView_.stopLoading();
+                webView_.clearHistory();
+                webView_.loadUrl(BLANK_PAGE_URL);
+            }
+            if (callback != null) {
+                callback.onMetadataRead(metadataJson);
+            }
+        }
+
+        private void returnToPool() {
+            if (idleWebViews_.size() < MAX_IDLE_WEBVIEWS) {
+                idleWebViews_.add(this);
+            } else {
+                destroy();
+            }
+        }
+
+        /**
+         * Destroys the WebView. Any page finish reported later by the WebView is ignored.
+         */
+        private void destroy() {
+            mainHandler_.removeCallbacks(resetTimeoutRunnable_);
+            resettingWebViews_.remove(this);
+            state_ = STATE_DESTROYED;
+            webView_.destroy();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package io.branch.roots;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>
+ * Tests for matching a uri region against a {@link Matcher.CompiledPattern}.
+ * </p>
+ */
+public class CompiledPatternTest {
+
+    @Test
+    public void capturesVariableWithinRegion() {
+        Matcher.CompiledPattern pattern = Matcher.compile("item-{id}");
+        String uri = "myapp://item-42/view";
+        int[] captureBounds = new int[2];
+        assertTrue(pattern.matches(uri, 8, 15, false, captureBounds, 0));
+        assertEquals("42", uri.substring(captureBounds[0], captureBounds[1]));
+        assertEquals("id", pattern.getParamName(0));
+    }
+
+    @Test
+    public void requiresAtLeastOneCharacterForVariable() {
+        Matcher.CompiledPattern pattern = Matcher.compile("item-{id}");
+        assertFalse(pattern.matches("item-", 0, 5, false, null, 0));
+        assertFalse(pattern.matches("itemx42", 0, 7, false, null, 0));
+    }
+
+    @Test
+    public void matchesGreedilyWithBacktracking() {
+        Matcher.CompiledPattern pattern = Matcher.compile("{a}-{b}");
+        String uri = "x-y-z";
+        int[] captureBounds = new int[4];
+        assertTrue(pattern.matches(uri, 0, uri.length(), false, captureBounds, 0));
+        assertEquals("x-y", uri.substring(captureBounds[0], captureBounds[1]));
+        assertEquals("z", uri.substring(captureBounds[2], captureBounds[3]));
+    }
+
+    @Test
+    public void writesCapturesFromBoundsOffset() {
+        Matcher.CompiledPattern pattern = Matcher.compile("{name}.html");
+        int[] captureBounds = new int[4];
+        assertTrue(pattern.matches("index.html", 0, 10, false, captureBounds, 2));
+        assertEquals(0, captureBounds[2]);
+        assertEquals(5, captureBounds[3]);
+    }
+
+    @Test
+    public void comparesLiteralsIgnoringCaseWhenAsked() {
+        Matcher.CompiledPattern pattern = Matcher.compile("Item-{id}");
+        assertFalse(pattern.matches("item-1", 0, 6, false, null, 0));
+        assertTrue(pattern.matches("item-1", 0, 6, true, null, 0));
+    }
+
+    @Test
+    public void treatsWildcardAsUnnamedVariable() {
+        Matcher.CompiledPattern pattern = Matcher.compile("*.html");
+        assertEquals(1, pattern.getVariableCount());
+        assertNull(pattern.getParamName(0));
+        assertTrue(pattern.matches("index.html", 0, 10, false, null, 0));
+        assertFalse(pattern.matches("index.htm", 0, 9, false, null, 0));
+    }
+
+    @Test
+    public void compilesEachPatternOnce() {
+        assertSame(Matcher.compile("page-{n}"), Matcher.compile("page-{n}"));
+    }
+}
@@ -0,0 +1,100 @@
+package io.branch.roots;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * <p>
+ * Tests for the route precedence of {@link RouteTable}. The most specific route should match regardless of the order in
+ * which the routes are added, ie. literal, mixed pattern, param and then wild card segments.
+ * </p>
+ */
+public class RouteTableTest {
+
+    @Test
+    public void prefersLiteralOverParam() {
+        RouteTable routeTable = new RouteTable();
+        routeTable.addRoute("myapp://item/{id}", "ParamActivity");
+        routeTable.addRoute("myapp://item/new", "LiteralActivity");
+        assertEquals("LiteralActivity", match(routeTable, "myapp://item/new"));
+        assertEquals("ParamActivity", match(routeTable, "myapp://item/42"));
+    }
+
+    @Test
+    public void prefersMixedPatternOverParam() {
+        RouteTable routeTable = new RouteTable();
+        routeTable.addRoute("myapp://item/{id}", "ParamActivity");
+        routeTable.addRoute("myapp://item/id-{id}", "PatternActivity");
+        assertEquals("PatternActivity", match(routeTable, "myapp://item/id-7"));
+        assertEquals("ParamActivity", match(routeTable, "myapp://item/7"));
+    }
+
+    @Test
+    public void prefersParamOverWildcard() {
+        RouteTable routeTable = new RouteTable();
+        routeTable.addRoute("myapp://item/*", "WildcardActivity");
+        routeTable.addRoute("myapp://item/{id}", "ParamActivity");
+        assertEquals("ParamActivity", match(routeTable, "myapp://item/1"));
+        assertEquals("WildcardActivity", match(routeTable, "myapp://item/1/2"));
+    }
+
+    @Test
+    public void matchesWildcardAcrossSegments() {
+        RouteTable routeTable = new RouteTable();
+        routeTable.addRoute("myapp://*/detail", "DetailActivity");
+        assertEquals("DetailActivity", match(routeTable, "myapp://a/b/detail"));
+        assertNull(match(routeTable, "myapp://detail"));
+    }
+
+    @Test
+    public void backtracksFromDeadEndLiteral() {
+        RouteTable routeTable = new RouteTable();
+        routeTable.addRoute("myapp://item/new/edit", "EditActivity");
+        routeTable.addRoute("myapp://item/{id}/view", "ViewActivity");
+        assertEquals("ViewActivity", match(routeTable, "myapp://item/new/view"));
+        assertEquals("EditActivity", match(routeTable, "myapp://item/new/edit"));
+    }
+
+    @Test
+    public void ignoresCaseOnlyWhenAsked() {
+        RouteTable routeTable = new RouteTable();
+        routeTable.addRoute("myapp://item/{id}", "ItemActivity");
+        assertEquals("ItemActivity", match(routeTable, "MYAPP://ITEM/5", true));
+        assertNull(match(routeTable, "MYAPP://ITEM/5", false));
+    }
+
+    @Test
+    public void ignoresQueryAndFragment() {
+        RouteTable routeTable = new RouteTable();
+        routeTable.addRoute("myapp://item/{id}", "ItemActivity");
+        assertEquals("ItemActivity", match(routeTable, "myapp://item/5?x=1#top"));
+    }
+
+    @Test
+    public void keepsFirstRouteForSamePattern() {
+        RouteTable routeTable = new RouteTable();
+        routeTable.addRoute("myapp://item/{id}", "FirstActivity");
+        routeTable.addRoute("myapp://item/{id}", "SecondActivity");
+        assertEquals("FirstActivity", match(routeTable, "myapp://item/5"));
+    }
+
+    @Test
+    public void returnsNullWithoutMatch() {
+        RouteTable routeTable = new RouteTable();
+        assertNull(match(routeTable, "myapp://item/5"));
+        routeTable.addRoute("myapp://item/{id}", "ItemActivity");
+        assertNull(match(routeTable, "otherapp://item/5"));
+        assertNull(match(routeTable, "myapp://item"));
+    }
+
+    private static String match(RouteTable routeTable, String uri) {
+        return match(routeTable, uri, false);
+    }
+
+    private static String match(RouteTable routeTable, String uri, boolean ignoreCase) {
+        RouteTable.RouteMatch match = routeTable.match(new UriView(uri), ignoreCase);
+        return match != null ? match.getRoute().getActivityName() : null;
+    }
+}
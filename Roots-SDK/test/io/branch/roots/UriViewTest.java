@@ -0,0 +1,61 @@
+package io.branch.roots;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>
+ * Tests for splitting the uris and route patterns in to segments with {@link UriView}.
+ * </p>
+ */
+public class UriViewTest {
+
+    @Test
+    public void splitsSchemeHostAndPathSegments() {
+        UriView uri = new UriView("myapp://item/42/");
+        // Trailing "/" does not make a segment
+        assertEquals(3, uri.getSegmentCount());
+        assertEquals("myapp", uri.getSegment(0));
+        assertEquals("item", uri.getSegment(1));
+        assertEquals("42", uri.getSegment(2));
+    }
+
+    @Test
+    public void excludesQueryAndFragmentFromSegments() {
+        UriView uri = new UriView("https://example.com/a/b?x=1#frag");
+        assertEquals(4, uri.getSegmentCount());
+        assertEquals("example.com", uri.getSegment(1));
+        assertEquals("b", uri.getSegment(3));
+    }
+
+    @Test
+    public void readsQueryParameters() {
+        UriView uri = new UriView("myapp://item?x=1&flag&y=two#z=3");
+        assertEquals("1", uri.getQueryParameter("x"));
+        assertEquals("", uri.getQueryParameter("flag"));
+        assertEquals("two", uri.getQueryParameter("y"));
+        assertNull(uri.getQueryParameter("z"));
+        assertNull(uri.getQueryParameter("fla"));
+        assertNull(new UriView("myapp://item").getQueryParameter("x"));
+    }
+
+    @Test
+    public void keepsQuestionMarkInPatternPath() {
+        UriView pattern = UriView.forPattern("myapp://search?q={q}");
+        assertEquals(2, pattern.getSegmentCount());
+        assertEquals("search?q={q}", pattern.getSegment(1));
+    }
+
+    @Test
+    public void comparesSegmentsInPlace() {
+        UriView uri = new UriView("myapp://Item/42");
+        assertTrue(uri.segmentEquals(1, "Item", false));
+        assertFalse(uri.segmentEquals(1, "item", false));
+        assertTrue(uri.segmentEquals(1, "item", true));
+        assertFalse(uri.segmentEquals(1, "Ite", true));
+    }
+}